@@ -1,10 +1,14 @@
 package ca.concordia;
 
+import ca.concordia.client.ClusterRouter;
+import ca.concordia.client.ConsistentHashRing;
+
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.net.Socket;
+import java.nio.file.Path;
 import java.util.Scanner;
 
 // Press Shift twice to open the Search Everywhere dialog and type `show whitespaces`,
@@ -15,6 +19,12 @@ public class Main {
         System.out.println("Hello and welcome!");
         Scanner scanner = new Scanner(System.in);
 
+        //cluster mode: --cluster <topology file>, each command goes to the node owning the file
+        if (args.length == 2 && args[0].equals("--cluster")) {
+            runClustered(Path.of(args[1]), scanner);
+            return;
+        }
+
         try{
             Socket clientSocket = new Socket("localhost", 12345);
             System.out.println("Connected to the server at localhost:12345");
@@ -31,6 +41,13 @@ public class Main {
                     //get response
                     String response = reader.readLine();
                     System.out.println("Response from server: " + response);
+                    //a paged LIST is followed by one line per entry
+                    if (response != null && response.startsWith("PAGE ")) {
+                        int entries = Integer.parseInt(response.split(" ")[1]);
+                        for (int i = 0; i < entries; i++) {
+                            System.out.println("  " + reader.readLine());
+                        }
+                    }
 
                     userInput = scanner.nextLine(); // Read next line
                 }
@@ -49,4 +66,21 @@ public class Main {
             e.printStackTrace();
         }
     }
-}
\ No newline at end of file
+
+    private static void runClustered(Path topology, Scanner scanner) {
+        try {
+            ClusterRouter router = new ClusterRouter(ConsistentHashRing.load(topology));
+            System.out.println("Routing over the cluster in " + topology);
+
+            String userInput = scanner.nextLine();
+            while (userInput != null && !userInput.isEmpty() && !userInput.equalsIgnoreCase("exit") && !userInput.equalsIgnoreCase("quit")) {
+                System.out.println("Response from server: " + router.send(userInput));
+                userInput = scanner.nextLine();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        } finally {
+            scanner.close();
+        }
+    }
+}
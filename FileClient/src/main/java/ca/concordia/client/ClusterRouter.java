@@ -0,0 +1,169 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sends commands to the node owning the file. LIST goes to every node in parallel and
+ * the results are merged; for a paged LIST every node returns its own first page after
+ * the cursor and the router keeps the first {@code limit} entries overall. Every node holds the whole directory tree, so MKDIR and RMDIR
+ * are sent to all nodes and LISTDIR results are merged like LIST. A {@code REDIRECT host:port} reply (the server's ring disagrees,
+ * e.g. during a topology change) is followed a limited number of times.
+ * Every node is reached through its own pooled {@link FileServiceClient}.
+ */
+public class ClusterRouter implements AutoCloseable {
+
+    private static final int MAX_REDIRECTS = 3;
+
+    private final ConsistentHashRing ring;
+    // "host:port" -> client
+    private final Map<String, FileServiceClient> clients = new ConcurrentHashMap<>();
+
+    public ClusterRouter(ConsistentHashRing ring) {
+        this.ring = ring;
+    }
+
+    public String send(String command) throws IOException {
+        try {
+            return sendAsync(command).join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    public CompletableFuture<String> sendAsync(String command) {
+        String[] parts = command.trim().split("\\s+", 3);
+        String op = parts[0].toUpperCase();
+
+        if (op.equals("LIST") && parts.length >= 2) {
+            return listPaged(command);
+        }
+        if (op.equals("LIST") || op.equals("LISTDIR")) {
+            return listAll(command);
+        }
+        if (op.equals("MKDIR") || op.equals("RMDIR")) {
+            return broadcast(command);
+        }
+        //commands without a filename can go anywhere
+        String address = parts.length >= 2 ? ring.ownerOf(parts[1]) : ring.addresses().iterator().next();
+        return sendFollowingRedirects(address, command, MAX_REDIRECTS);
+    }
+
+    @Override
+    public void close() {
+        for (FileServiceClient c : clients.values()) {
+            c.close();
+        }
+    }
+
+    private CompletableFuture<String> sendFollowingRedirects(String address, String command, int redirectsLeft) {
+        return clientFor(address).send(command).thenCompose(response -> {
+            if (!response.startsWith("REDIRECT ")) {
+                return CompletableFuture.completedFuture(response);
+            }
+            if (redirectsLeft == 0) {
+                return CompletableFuture.completedFuture("ERROR: too many redirects");
+            }
+            return sendFollowingRedirects(response.substring("REDIRECT ".length()).trim(), command, redirectsLeft - 1);
+        });
+    }
+
+    // fan out to every node, merge the names in order
+    private CompletableFuture<String> listAll(String command) {
+        List<String> addresses = new ArrayList<>(ring.addresses());
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String address : addresses) {
+            replies.add(clientFor(address).send(command));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            TreeSet<String> names = new TreeSet<>();
+            for (int i = 0; i < replies.size(); i++) {
+                String response = replies.get(i).join();
+                if (!response.startsWith("OK:")) {
+                    return "ERROR: failed on " + addresses.get(i) + ": " + response;
+                }
+                for (String name : response.substring(3).trim().split(",")) {
+                    if (!name.isEmpty()) {
+                        names.add(name);
+                    }
+                }
+            }
+            return "OK: " + String.join(",", names);
+        });
+    }
+
+    private CompletableFuture<String> listPaged(String command) {
+        String[] args = command.trim().split("\\s+");
+        int limit = args.length >= 3 ? Integer.parseInt(args[2]) : 100;
+        List<String> addresses = new ArrayList<>(ring.addresses());
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String address : addresses) {
+            replies.add(clientFor(address).send(command));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            List<FileListing.Entry> merged = new ArrayList<>();
+            boolean more = false;
+            for (int i = 0; i < replies.size(); i++) {
+                String response = replies.get(i).join();
+                if (!response.startsWith(FileListing.HEADER)) {
+                    return "ERROR: failed on " + addresses.get(i) + ": " + response;
+                }
+                FileListing page = FileListing.parse(response);
+                merged.addAll(page.getEntries());
+                more |= page.getNextCursor() != null;
+            }
+            //same order as the servers: path components compared one by one
+            merged.sort((a, b) -> comparePaths(a.getPath(), b.getPath()));
+            if (merged.size() > limit) {
+                merged = merged.subList(0, limit);
+                more = true;
+            }
+            String next = more && !merged.isEmpty() ? merged.get(merged.size() - 1).getPath() : null;
+            return FileListing.format(merged, next);
+        });
+    }
+
+    static int comparePaths(String a, String b) {
+        String[] pa = a.split("/");
+        String[] pb = b.split("/");
+        for (int i = 0; i < Math.min(pa.length, pb.length); i++) {
+            int c = pa[i].compareTo(pb[i]);
+            if (c != 0) {
+                return c;
+            }
+        }
+        return Integer.compare(pa.length, pb.length);
+    }
+
+    // same command on every node, the first error wins
+    private CompletableFuture<String> broadcast(String command) {
+        List<CompletableFuture<String>> replies = new ArrayList<>();
+        for (String address : ring.addresses()) {
+            replies.add(clientFor(address).send(command));
+        }
+        return CompletableFuture.allOf(replies.toArray(new CompletableFuture<?>[0])).thenApply(v -> {
+            for (CompletableFuture<String> r : replies) {
+                if (!r.join().startsWith("OK:")) {
+                    return r.join();
+                }
+            }
+            return replies.get(0).join();
+        });
+    }
+
+    private FileServiceClient clientFor(String address) {
+        return clients.computeIfAbsent(address, a -> {
+            List<String> hostPort = ConsistentHashRing.splitAddress(a);
+            return new FileServiceClient(hostPort.get(0), Integer.parseInt(hostPort.get(1)));
+        });
+    }
+}
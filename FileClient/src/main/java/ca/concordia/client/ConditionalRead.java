@@ -0,0 +1,32 @@
+package ca.concordia.client;
+
+/**
+ * Result of {@link FileServiceClient#readIfModified}: either the file is still at the
+ * version the caller has ({@link #isModified()} false, no data), or its current data
+ * and version.
+ */
+public class ConditionalRead {
+
+    private final boolean modified;
+    private final long version;
+    private final String data;
+
+    public ConditionalRead(boolean modified, long version, String data) {
+        this.modified = modified;
+        this.version = version;
+        this.data = data;
+    }
+
+    public boolean isModified() {
+        return modified;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    // null when not modified
+    public String getData() {
+        return data;
+    }
+}
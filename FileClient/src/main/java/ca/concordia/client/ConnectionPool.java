@@ -0,0 +1,160 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * Fixed-size set of connections to one server. New requests go to the open connection
+ * with the fewest requests in flight; a slot is only connected (or reconnected after a
+ * failure) when every open connection is already busy. Connecting happens on the pool's
+ * own threads, outside the pool's lock, so neither the caller nor other requests wait
+ * for a TCP handshake.
+ */
+final class ConnectionPool {
+
+    private final String host;
+    private final int port;
+    private final int connectTimeoutMs;
+    private final PooledConnection[] connections;
+    //connect in progress per slot, null when the slot is idle
+    private final List<CompletableFuture<PooledConnection>> connecting;
+    private final ExecutorService connector;
+    private volatile boolean closed = false;
+
+    ConnectionPool(String host, int port, int size, int connectTimeoutMs) {
+        if (size < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.host = host;
+        this.port = port;
+        this.connectTimeoutMs = connectTimeoutMs;
+        this.connections = new PooledConnection[size];
+        this.connecting = new ArrayList<>(Collections.nCopies(size, null));
+        this.connector = Executors.newCachedThreadPool(r -> {
+            Thread t = new Thread(r, "file-client-connect");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * A connection to send on. Completes right away when an open connection is idle (or
+     * every slot is in use), otherwise once a free slot has connected. If that connect
+     * fails, an existing connection is shared instead when there is one.
+     */
+    CompletableFuture<PooledConnection> acquire() {
+        CompletableFuture<PooledConnection> connect;
+        PooledConnection best = null;
+        int emptySlot = -1;
+        synchronized (this) {
+            if (closed) {
+                return CompletableFuture.failedFuture(new IOException("client closed"));
+            }
+            CompletableFuture<PooledConnection> inProgress = null;
+            for (int i = 0; i < connections.length; i++) {
+                PooledConnection c = connections[i];
+                if (connecting.get(i) != null) {
+                    if (inProgress == null) {
+                        inProgress = connecting.get(i);
+                    }
+                } else if (c == null || !c.isOpen()) {
+                    if (emptySlot == -1) {
+                        emptySlot = i;
+                    }
+                } else if (best == null || c.inFlight() < best.inFlight()) {
+                    best = c;
+                }
+            }
+            if (best != null && (best.inFlight() == 0 || emptySlot == -1)) {
+                return CompletableFuture.completedFuture(best);
+            }
+            if (emptySlot == -1) {
+                //every slot is still connecting, wait for one of them
+                return inProgress;
+            }
+            connect = new CompletableFuture<>();
+            connecting.set(emptySlot, connect);
+        }
+
+        final int slot = emptySlot;
+        try {
+            connector.execute(() -> connect(slot, connect));
+        } catch (RejectedExecutionException e) {
+            failConnect(slot, connect, new IOException("client closed"));
+        }
+        //could not grow, share an existing connection if there is one
+        final PooledConnection fallback = best;
+        return connect.exceptionallyCompose(e -> fallback != null && fallback.isOpen()
+                ? CompletableFuture.completedFuture(fallback)
+                : CompletableFuture.failedFuture(e));
+    }
+
+    /**
+     * A connection of its own, outside the pool (used for WATCH), connected on the pool's
+     * threads like the pooled ones.
+     */
+    CompletableFuture<PooledConnection> connectDedicated(Consumer<WatchEvent> events) {
+        try {
+            return CompletableFuture.supplyAsync(() -> {
+                try {
+                    return new PooledConnection(host, port, connectTimeoutMs, events);
+                } catch (IOException e) {
+                    throw new CompletionException(e);
+                }
+            }, connector);
+        } catch (RejectedExecutionException e) {
+            return CompletableFuture.failedFuture(new IOException("client closed"));
+        }
+    }
+
+    private void connect(int slot, CompletableFuture<PooledConnection> result) {
+        PooledConnection c;
+        try {
+            c = new PooledConnection(host, port, connectTimeoutMs);
+        } catch (IOException e) {
+            failConnect(slot, result, e);
+            return;
+        }
+        boolean added;
+        synchronized (this) {
+            connecting.set(slot, null);
+            added = !closed;
+            if (added) {
+                connections[slot] = c;
+            }
+        }
+        //completed outside the lock, the caller's continuation sends right away
+        if (added) {
+            result.complete(c);
+        } else {
+            IOException e = new IOException("client closed");
+            c.close(e);
+            result.completeExceptionally(e);
+        }
+    }
+
+    private void failConnect(int slot, CompletableFuture<PooledConnection> result, IOException failure) {
+        synchronized (this) {
+            connecting.set(slot, null);
+        }
+        result.completeExceptionally(failure);
+    }
+
+    synchronized void close() {
+        closed = true;
+        connector.shutdown();
+        for (PooledConnection c : connections) {
+            if (c != null) {
+                c.close(new IOException("client closed"));
+            }
+        }
+    }
+}
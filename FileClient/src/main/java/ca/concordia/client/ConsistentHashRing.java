@@ -0,0 +1,88 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Client copy of the server's ring (ca.concordia.cluster.ConsistentHashRing): every
+ * node owns {@link #VIRTUAL_NODES} points at MD5("<name>#<i>"), a file belongs to the
+ * first point at or after MD5(filename). Hashing must stay identical on both sides.
+ *
+ * Nodes come from the same topology file as the servers, one {@code name host:port}
+ * per line.
+ */
+public class ConsistentHashRing {
+
+    public static final int VIRTUAL_NODES = 128;
+
+    // node name -> "host:port"
+    private final Map<String, String> nodes;
+    private final TreeMap<Long, String> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Map<String, String> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Topology needs at least one node");
+        }
+        this.nodes = new LinkedHashMap<>(nodes);
+        for (String name : nodes.keySet()) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(name + "#" + i), name);
+            }
+        }
+    }
+
+    public static ConsistentHashRing load(Path topologyFile) throws IOException {
+        Map<String, String> nodes = new LinkedHashMap<>();
+        for (String raw : Files.readAllLines(topologyFile)) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            if (parts.length != 2 || parts[1].lastIndexOf(':') <= 0) {
+                throw new IllegalArgumentException("Bad topology line: " + raw);
+            }
+            nodes.put(parts[0], parts[1]);
+        }
+        return new ConsistentHashRing(nodes);
+    }
+
+    // "host:port" of the node owning this file; a leading '/' does not change the owner
+    public String ownerOf(String fileName) {
+        String canonical = fileName.startsWith("/") ? fileName.substring(1) : fileName;
+        Map.Entry<Long, String> e = ring.ceilingEntry(hash(canonical));
+        return nodes.get(e != null ? e.getValue() : ring.firstEntry().getValue());
+    }
+
+    public Collection<String> addresses() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (d[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+
+    static List<String> splitAddress(String address) {
+        int sep = address.lastIndexOf(':');
+        return List.of(address.substring(0, sep), address.substring(sep + 1));
+    }
+}
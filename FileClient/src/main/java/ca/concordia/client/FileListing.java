@@ -0,0 +1,81 @@
+package ca.concordia.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One page of a {@code LIST <prefix> <limit> [cursor]} reply. Pass
+ * {@link #getNextCursor()} back to get the following page; it is null on the last one.
+ */
+public class FileListing {
+
+    static final String HEADER = "PAGE ";
+
+    public static final class Entry {
+        private final String path;
+        private final int size;
+        private final long modified;
+
+        public Entry(String path, int size, long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        // epoch millis
+        public long getModified() {
+            return modified;
+        }
+    }
+
+    private final List<Entry> entries;
+    private final String nextCursor;
+
+    public FileListing(List<Entry> entries, String nextCursor) {
+        this.entries = Collections.unmodifiableList(entries);
+        this.nextCursor = nextCursor;
+    }
+
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    // "PAGE <n> <cursor|->" + n lines of "<path> <size> <modified>"
+    static FileListing parse(String response) {
+        String[] lines = response.split("\n");
+        if (!lines[0].startsWith(HEADER)) {
+            FileServiceClient.payload(response);
+            throw new FileServiceException("unexpected response: " + lines[0]);
+        }
+        String[] header = lines[0].substring(HEADER.length()).split(" ");
+        List<Entry> entries = new ArrayList<>(lines.length - 1);
+        for (int i = 1; i < lines.length; i++) {
+            String[] f = lines[i].split(" ");
+            entries.add(new Entry(f[0], Integer.parseInt(f[1]), Long.parseLong(f[2])));
+        }
+        return new FileListing(entries, header[1].equals("-") ? null : header[1]);
+    }
+
+    // page lines back to the wire format
+    static String format(List<Entry> entries, String nextCursor) {
+        StringBuilder sb = new StringBuilder(HEADER).append(entries.size()).append(' ')
+                .append(nextCursor == null ? "-" : nextCursor);
+        for (Entry e : entries) {
+            sb.append('\n').append(e.getPath()).append(' ').append(e.getSize()).append(' ').append(e.getModified());
+        }
+        return sb.toString();
+    }
+}
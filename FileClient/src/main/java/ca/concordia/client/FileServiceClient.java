@@ -0,0 +1,241 @@
+package ca.concordia.client;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous client for one FileServer. Requests share a small pool of connections
+ * and are pipelined on them, so many requests can be in flight without a TCP
+ * handshake each.
+ *
+ * Every request has a timeout. Requests that are safe to repeat (CREATE, WRITE,
+ * TRUNCATE, READ, LIST) are retried with exponential backoff after a connection failure or timeout;
+ * DELETE is not, since a second attempt would report "File not found".
+ * Conditional writes (WRITE IF-MATCH) are not retried either: if the first attempt
+ * went through, the retry would fail with a version mismatch.
+ * {@code ERROR: busy} means the server refused the request without running it, so
+ * every command is retried with backoff on it.
+ *
+ * <pre>
+ * try (FileServiceClient client = new FileServiceClient("localhost", 12345)) {
+ *     client.create("a.txt")
+ *           .thenCompose(v -> client.write("a.txt", "hello"))
+ *           .thenCompose(v -> client.read("a.txt"))
+ *           .thenAccept(System.out::println)
+ *           .join();
+ * }
+ * </pre>
+ */
+public class FileServiceClient implements AutoCloseable {
+
+    public static final int DEFAULT_POOL_SIZE = 4;
+    public static final long DEFAULT_TIMEOUT_MS = 5000;
+    public static final int DEFAULT_MAX_RETRIES = 2;
+    private static final long BACKOFF_MS = 50;
+    private static final String BUSY = "ERROR: busy";
+    private static final String NOT_MODIFIED = "NOT_MODIFIED ";
+
+    private final ConnectionPool pool;
+    private final long timeoutMs;
+    private final int maxRetries;
+
+    public FileServiceClient(String host, int port) {
+        this(host, port, DEFAULT_POOL_SIZE, DEFAULT_TIMEOUT_MS, DEFAULT_MAX_RETRIES);
+    }
+
+    public FileServiceClient(String host, int port, int poolSize, long timeoutMs, int maxRetries) {
+        this.pool = new ConnectionPool(host, port, poolSize, (int) Math.min(timeoutMs, Integer.MAX_VALUE));
+        this.timeoutMs = timeoutMs;
+        this.maxRetries = maxRetries;
+    }
+
+    // raw protocol line in, raw response line out (OK:/ERROR:/REDIRECT ...)
+    public CompletableFuture<String> send(String command) {
+        if (command.indexOf('\n') >= 0 || command.indexOf('\r') >= 0) {
+            return CompletableFuture.failedFuture(new IllegalArgumentException("Command must be a single line"));
+        }
+        return attempt(command, maxRetries, 0);
+    }
+
+    public CompletableFuture<Void> create(String fileName) {
+        return send("CREATE " + fileName).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    public CompletableFuture<Void> write(String fileName, String data) {
+        return send("WRITE " + fileName + " " + data).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    // grow (the new range reads as zeros) or shrink the file to size bytes
+    public CompletableFuture<Void> truncate(String fileName, int size) {
+        return send("TRUNCATE " + fileName + " " + size).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    // server-side move, no data is transferred
+    public CompletableFuture<Void> rename(String from, String to) {
+        return send("RENAME " + from + " " + to).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    // server-side copy sharing the source's blocks until either file is changed
+    public CompletableFuture<Void> copy(String from, String to) {
+        return send("COPY " + from + " " + to).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    /**
+     * Subscribes to changes of a file, or of every path starting with a prefix when the
+     * pattern ends in '*'. Events arrive on the connection's reader thread, keep the
+     * handler short. Close the subscription to stop.
+     */
+    public CompletableFuture<Subscription> watch(String pattern, Consumer<WatchEvent> handler) {
+        return pool.connectDedicated(handler).thenCompose(conn -> {
+            Subscription sub = new Subscription(conn);
+            return sub.watch(pattern)
+                    .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                    .handle((v, err) -> {
+                        if (err != null) {
+                            sub.close();
+                            throw err instanceof CompletionException ? (CompletionException) err : new CompletionException(err);
+                        }
+                        return sub;
+                    });
+        });
+    }
+
+    public CompletableFuture<String> read(String fileName) {
+        return send("READ " + fileName).thenApply(FileServiceClient::payload);
+    }
+
+    // current version of the file, without reading it
+    public CompletableFuture<Long> version(String fileName) {
+        return send("STAT " + fileName).thenApply(r -> Long.parseLong(payload(r).split(" ")[2]));
+    }
+
+    // data only if the file changed since knownVersion
+    public CompletableFuture<ConditionalRead> readIfModified(String fileName, long knownVersion) {
+        return send("READ " + fileName + " IF-NONE-MATCH " + knownVersion).thenApply(r -> {
+            if (r.startsWith(NOT_MODIFIED)) {
+                return new ConditionalRead(false, Long.parseLong(r.substring(NOT_MODIFIED.length()).trim()), null);
+            }
+            String[] p = payload(r).split(" ", 2);
+            return new ConditionalRead(true, Long.parseLong(p[0]), p.length > 1 ? p[1] : "");
+        });
+    }
+
+    // writes only if nobody changed the file since expectedVersion, returns the new version;
+    // otherwise fails with a FileServiceException "Version mismatch (current N)"
+    public CompletableFuture<Long> writeIfMatch(String fileName, long expectedVersion, String data) {
+        return send("WRITE " + fileName + " IF-MATCH " + expectedVersion + " " + data).thenApply(r -> {
+            String p = payload(r);
+            return Long.parseLong(p.substring(p.lastIndexOf(' ') + 1));
+        });
+    }
+
+    public CompletableFuture<Void> delete(String fileName) {
+        return send("DELETE " + fileName).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    public CompletableFuture<List<String>> list() {
+        return send("LIST").thenApply(r -> {
+            List<String> names = new ArrayList<>();
+            for (String name : payload(r).split(",")) {
+                if (!name.isEmpty()) {
+                    names.add(name);
+                }
+            }
+            return names;
+        });
+    }
+
+    // one page of the files under prefix ("" for all), cursor null for the first page
+    public CompletableFuture<FileListing> listPage(String prefix, int limit, String cursor) {
+        String command = "LIST " + (prefix == null || prefix.isEmpty() ? "*" : prefix) + " " + limit
+                + (cursor == null ? "" : " " + cursor);
+        return send(command).thenApply(FileListing::parse);
+    }
+
+    @Override
+    public void close() {
+        pool.close();
+    }
+
+    private CompletableFuture<String> attempt(String command, int retriesLeft, int attempt) {
+        CompletableFuture<String> result = new CompletableFuture<>();
+        pool.acquire().whenComplete((conn, err) -> {
+            if (err != null) {
+                retryOrFail(command, isRetryable(command) ? retriesLeft : 0, attempt, unwrap(err), result);
+            } else {
+                send(conn, command, retriesLeft, attempt, result);
+            }
+        });
+        return result;
+    }
+
+    private void send(PooledConnection conn, String command, int retriesLeft, int attempt,
+                      CompletableFuture<String> result) {
+        conn.send(command)
+                .orTimeout(timeoutMs, TimeUnit.MILLISECONDS)
+                .whenComplete((response, err) -> {
+                    if (err == null) {
+                        if (response.equals(BUSY) && retriesLeft > 0) {
+                            //overloaded server, nothing was executed
+                            retryOrFail(command, retriesLeft, attempt, new FileServiceException("busy"), result);
+                        } else {
+                            result.complete(response);
+                        }
+                        return;
+                    }
+                    Throwable cause = unwrap(err);
+                    if (cause instanceof TimeoutException) {
+                        //the late response would be matched to nothing useful, start over on a clean connection
+                        conn.close(cause);
+                    }
+                    retryOrFail(command, isRetryable(command) ? retriesLeft : 0, attempt, cause, result);
+                });
+    }
+
+    private static Throwable unwrap(Throwable err) {
+        return err instanceof CompletionException && err.getCause() != null ? err.getCause() : err;
+    }
+
+    private void retryOrFail(String command, int retriesLeft, int attempt, Throwable cause,
+                             CompletableFuture<String> result) {
+        if (retriesLeft <= 0) {
+            result.completeExceptionally(cause);
+            return;
+        }
+        Executor later = CompletableFuture.delayedExecutor(BACKOFF_MS << attempt, TimeUnit.MILLISECONDS);
+        CompletableFuture.runAsync(() -> attempt(command, retriesLeft - 1, attempt + 1).whenComplete((r, e) -> {
+            if (e == null) {
+                result.complete(r);
+            } else {
+                result.completeExceptionally(e);
+            }
+        }), later);
+    }
+
+    private static boolean isRetryable(String command) {
+        String[] parts = command.trim().split("\\s+", 4);
+        String op = parts[0].toUpperCase();
+        if (op.equals("WRITE") && parts.length > 2 && parts[2].equalsIgnoreCase("IF-MATCH")) {
+            return false;
+        }
+        return op.equals("CREATE") || op.equals("WRITE") || op.equals("TRUNCATE") || op.equals("READ")
+                || op.equals("STAT") || op.equals("LIST");
+    }
+
+    // "OK: <payload>" -> payload, "ERROR: <msg>" -> FileServiceException
+    static String payload(String response) {
+        if (response.startsWith("OK:")) {
+            return response.length() > 3 && response.charAt(3) == ' ' ? response.substring(4) : response.substring(3);
+        }
+        if (response.startsWith("ERROR:")) {
+            throw new FileServiceException(response.substring(6).trim());
+        }
+        throw new FileServiceException("unexpected response: " + response);
+    }
+}
@@ -0,0 +1,13 @@
+package ca.concordia.client;
+
+/**
+ * The server answered a request with {@code ERROR: <message>}.
+ */
+public class FileServiceException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FileServiceException(String message) {
+        super(message);
+    }
+}
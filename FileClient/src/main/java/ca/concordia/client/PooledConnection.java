@@ -0,0 +1,143 @@
+package ca.concordia.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * One TCP connection with any number of requests in flight. The server answers the
+ * requests of a connection in order, so responses are matched to the oldest pending
+ * future. A reader thread completes them as they arrive. Responses are one line, except
+ * a paged LIST ({@code PAGE <n> <cursor>} followed by n entry lines), which is
+ * handed over as one string with the lines joined by '\n'.
+ * {@code EVENT ...} lines pushed for a WATCH are not responses; they go to the event
+ * handler (and are dropped on connections without one).
+ */
+final class PooledConnection {
+
+    private final Socket socket;
+    private final OutputStream out;
+    private final BufferedReader in;
+    private final ArrayDeque<CompletableFuture<String>> pending = new ArrayDeque<>();
+    private final Consumer<WatchEvent> events;
+    private volatile boolean closed = false;
+
+    PooledConnection(String host, int port, int connectTimeoutMs) throws IOException {
+        this(host, port, connectTimeoutMs, null);
+    }
+
+    PooledConnection(String host, int port, int connectTimeoutMs, Consumer<WatchEvent> events) throws IOException {
+        this.events = events;
+        socket = new Socket();
+        socket.setTcpNoDelay(true);
+        socket.connect(new InetSocketAddress(host, port), connectTimeoutMs);
+        out = socket.getOutputStream();
+        in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+
+        Thread reader = new Thread(this::readResponses, "file-client-" + socket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    CompletableFuture<String> send(String command) {
+        CompletableFuture<String> f = new CompletableFuture<>();
+        byte[] line = (command + "\n").getBytes(StandardCharsets.UTF_8);
+        synchronized (this) {
+            if (closed) {
+                f.completeExceptionally(new IOException("connection closed"));
+                return f;
+            }
+            //queued before writing so the reader can never see a response without its future
+            pending.addLast(f);
+            try {
+                out.write(line);
+                out.flush();
+            } catch (IOException e) {
+                close(e);
+            }
+        }
+        return f;
+    }
+
+    synchronized int inFlight() {
+        return pending.size();
+    }
+
+    boolean isOpen() {
+        return !closed;
+    }
+
+    // fails every pending request, callers decide whether to retry on another connection
+    void close(Throwable cause) {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            CompletableFuture<String> f;
+            while ((f = pending.pollFirst()) != null) {
+                f.completeExceptionally(cause);
+            }
+        }
+        try {
+            socket.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    private String readPage(String header) throws IOException {
+        int n = Integer.parseInt(header.substring(FileListing.HEADER.length()).split(" ", 2)[0]);
+        StringBuilder sb = new StringBuilder(header);
+        for (int i = 0; i < n; i++) {
+            String entry = in.readLine();
+            if (entry == null) {
+                throw new IOException("server closed the connection mid-page");
+            }
+            sb.append('\n').append(entry);
+        }
+        return sb.toString();
+    }
+
+    //a failing handler must not take the connection down with it
+    private void deliver(String line) {
+        try {
+            events.accept(WatchEvent.parse(line));
+        } catch (RuntimeException e) {
+            System.err.println("WATCH handler failed on '" + line + "': " + e);
+        }
+    }
+
+    private void readResponses() {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(WatchEvent.PREFIX)) {
+                    if (events != null) {
+                        deliver(line);
+                    }
+                    continue;
+                }
+                if (line.startsWith(FileListing.HEADER)) {
+                    line = readPage(line);
+                }
+                CompletableFuture<String> f;
+                synchronized (this) {
+                    f = pending.pollFirst();
+                }
+                if (f != null) {
+                    f.complete(line);
+                }
+            }
+            close(new IOException("server closed the connection"));
+        } catch (IOException e) {
+            close(e);
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package ca.concordia.client;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A WATCH on its own connection (so events never queue behind pooled requests).
+ * More patterns can be added with {@link #watch(String)}; closing it ends every
+ * watch of the connection.
+ */
+public class Subscription implements AutoCloseable {
+
+    private final PooledConnection connection;
+
+    Subscription(PooledConnection connection) {
+        this.connection = connection;
+    }
+
+    // file name, or a prefix ending in '*'
+    public CompletableFuture<Void> watch(String pattern) {
+        return connection.send("WATCH " + pattern).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    public CompletableFuture<Void> unwatch(String pattern) {
+        return connection.send("UNWATCH " + pattern).thenApply(FileServiceClient::payload).thenApply(r -> null);
+    }
+
+    public boolean isOpen() {
+        return connection.isOpen();
+    }
+
+    @Override
+    public void close() {
+        connection.close(new IOException("subscription closed"));
+    }
+}
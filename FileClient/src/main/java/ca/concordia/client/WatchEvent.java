@@ -0,0 +1,63 @@
+package ca.concordia.client;
+
+/**
+ * One change pushed by the server for a WATCH subscription
+ * ({@code EVENT <type> <path> [<target>] [<version>]}).
+ * Type is CREATE, WRITE, TRUNCATE, DELETE, RENAME or OVERFLOW. For RENAME the path is
+ * the old name and the target the new one. Version is -1 when the event carries none
+ * (DELETE, OVERFLOW). OVERFLOW means events were dropped and the watched files should
+ * be read again.
+ */
+public class WatchEvent {
+
+    static final String PREFIX = "EVENT ";
+
+    private final String type;
+    private final String path;
+    private final String target;
+    private final long version;
+
+    public WatchEvent(String type, String path, String target, long version) {
+        this.type = type;
+        this.path = path;
+        this.target = target;
+        this.version = version;
+    }
+
+    static WatchEvent parse(String line) {
+        String[] f = line.substring(PREFIX.length()).split(" ");
+        String type = f[0];
+        switch (type) {
+            case "OVERFLOW":
+                return new WatchEvent(type, null, null, -1);
+            case "DELETE":
+                return new WatchEvent(type, f[1], null, -1);
+            case "RENAME":
+                return new WatchEvent(type, f[1], f[2], Long.parseLong(f[3]));
+            default:
+                return new WatchEvent(type, f[1], null, Long.parseLong(f[2]));
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    // new name of a RENAME, null otherwise
+    public String getTarget() {
+        return target;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public String toString() {
+        return "WatchEvent(" + type + " " + path + (target == null ? "" : " -> " + target) + " v" + version + ")";
+    }
+}
@@ -0,0 +1,95 @@
+import ca.concordia.client.ClusterRouter;
+import ca.concordia.client.ConsistentHashRing;
+import helpers.FakeServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(20)
+public class ClusterRouterTests {
+
+    static ConsistentHashRing ring(FakeServer... nodes) {
+        Map<String, String> topology = new LinkedHashMap<>();
+        for (int i = 0; i < nodes.length; i++) {
+            topology.put("node" + (i + 1), nodes[i].getAddress());
+        }
+        return new ConsistentHashRing(topology);
+    }
+
+    @Test
+    void testCommandsGoToTheOwningNode() throws Exception {
+        try (FakeServer one = new FakeServer(line -> "OK: one");
+             FakeServer two = new FakeServer(line -> "OK: two")) {
+            ConsistentHashRing ring = ring(one, two);
+            try (ClusterRouter router = new ClusterRouter(ring)) {
+                for (int i = 0; i < 20; i++) {
+                    String expected = ring.ownerOf("f" + i).equals(one.getAddress()) ? "OK: one" : "OK: two";
+                    assertEquals(expected, router.send("READ f" + i));
+                    assertEquals(expected, router.send("READ /f" + i), "Same file, same node");
+                }
+            }
+        }
+    }
+
+    @Test
+    void testRedirectIsFollowed() throws Exception {
+        try (FakeServer owner = new FakeServer(line -> "OK: moved here")) {
+            // the only node in the client's ring no longer owns the file
+            try (FakeServer stale = new FakeServer(line -> "REDIRECT " + owner.getAddress());
+                 ClusterRouter router = new ClusterRouter(ring(stale))) {
+                assertEquals("OK: moved here", router.send("READ f"));
+            }
+        }
+        // two nodes pointing at each other must not loop forever
+        FakeServer[] loop = new FakeServer[2];
+        try (FakeServer a = new FakeServer(line -> "REDIRECT " + loop[1].getAddress());
+             FakeServer b = new FakeServer(line -> "REDIRECT " + loop[0].getAddress())) {
+            loop[0] = a;
+            loop[1] = b;
+            try (ClusterRouter router = new ClusterRouter(ring(a))) {
+                assertEquals("ERROR: too many redirects", router.send("READ f"));
+            }
+        }
+    }
+
+    @Test
+    void testListMergesAllNodes() throws Exception {
+        try (FakeServer one = new FakeServer(line -> "OK: b,d");
+             FakeServer two = new FakeServer(line -> "OK: a,c,");
+             ClusterRouter router = new ClusterRouter(ring(one, two))) {
+            assertEquals("OK: a,b,c,d", router.send("LIST"));
+        }
+    }
+
+    @Test
+    void testPagedListKeepsTheFirstEntriesOverall() throws Exception {
+        try (FakeServer one = new FakeServer(line -> "PAGE 2 -\na1 1 10\nd/x 2 20");
+             FakeServer two = new FakeServer(line -> "PAGE 3 d\na2 3 30\nb 4 40\nd 5 50");
+             ClusterRouter router = new ClusterRouter(ring(one, two))) {
+            String reply = router.send("LIST * 3");
+            assertEquals("PAGE 3 b\na1 1 10\na2 3 30\nb 4 40", reply);
+
+            // the last page: every node is exhausted and everything fits
+            try (FakeServer last = new FakeServer(line -> "PAGE 1 -\nz 1 10");
+                 ClusterRouter small = new ClusterRouter(ring(one, last))) {
+                assertEquals("PAGE 3 -\na1 1 10\nd/x 2 20\nz 1 10", small.send("LIST * 5"));
+            }
+            assertEquals("LIST * 3", one.received().get(0), "Every node gets the same page request");
+            assertEquals("LIST * 3", two.received().get(0));
+        }
+    }
+
+    @Test
+    void testPagedListReportsAFailingNode() throws Exception {
+        try (FakeServer one = new FakeServer(line -> "PAGE 0 -");
+             FakeServer two = new FakeServer(line -> "ERROR: LIST limit must be a number");
+             ClusterRouter router = new ClusterRouter(ring(one, two))) {
+            String reply = router.send("LIST * 3");
+            assertTrue(reply.startsWith("ERROR: failed on " + two.getAddress()), reply);
+        }
+    }
+}
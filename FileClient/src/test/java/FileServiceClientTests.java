@@ -0,0 +1,117 @@
+import ca.concordia.client.FileServiceClient;
+import ca.concordia.client.FileServiceException;
+import helpers.FakeServer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@Timeout(20)
+public class FileServiceClientTests {
+
+    static Throwable failure(CompletableFuture<?> f) {
+        CompletionException e = assertThrows(CompletionException.class, f::join);
+        return e.getCause();
+    }
+
+    @Test
+    void testPipelinedResponsesMatchTheirRequests() throws Exception {
+        // echoes the file name back, so every reply says which request it answers
+        try (FakeServer server = new FakeServer(line -> "OK: " + line.split(" ")[1]);
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 1, 5000, 0)) {
+            List<CompletableFuture<String>> replies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                replies.add(client.read("f" + i));
+            }
+            for (int i = 0; i < 200; i++) {
+                assertEquals("f" + i, replies.get(i).join());
+            }
+            assertEquals(1, server.connections(), "All requests share the one pooled connection");
+        }
+    }
+
+    @Test
+    void testConcurrentRequestsStayWithinThePoolSize() throws Exception {
+        // every request arrives while the slots are still connecting
+        try (FakeServer server = new FakeServer(line -> "OK: " + line.split(" ")[1]);
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 3, 5000, 0)) {
+            List<CompletableFuture<String>> replies = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                replies.add(client.read("f" + i));
+            }
+            for (int i = 0; i < 200; i++) {
+                assertEquals("f" + i, replies.get(i).join());
+            }
+            assertTrue(server.connections() <= 3, "Opened " + server.connections() + " connections for a pool of 3");
+        }
+    }
+
+    @Test
+    void testTimeoutClosesTheConnection() throws Exception {
+        // "slow" is never answered
+        try (FakeServer server = new FakeServer(line -> line.contains("slow") ? null : "OK: fast");
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 1, 200, 0)) {
+            assertInstanceOf(TimeoutException.class, failure(client.read("slow")));
+
+            // a fresh connection, so no late reply can be taken for this one
+            assertEquals("fast", client.read("other").join());
+            assertEquals(2, server.connections());
+        }
+    }
+
+    @Test
+    void testBusyIsRetriedForEveryCommand() throws Exception {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        // refused twice, then executed
+        try (FakeServer server = new FakeServer(line ->
+                attempts.computeIfAbsent(line, k -> new AtomicInteger()).incrementAndGet() <= 2 ? "ERROR: busy"
+                        : line.contains("IF-MATCH") ? "OK: wrote f 8" : "OK: deleted f");
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 1, 5000, 2)) {
+            // busy means nothing ran, so even commands that are never repeated otherwise are safe
+            client.delete("f").join();
+            assertEquals(3, attempts.get("DELETE f").get());
+            assertEquals(8L, client.writeIfMatch("f", 7, "x").join());
+            assertEquals(3, attempts.get("WRITE f IF-MATCH 7 x").get());
+        }
+    }
+
+    @Test
+    void testConnectionFailuresRetryOnlyRepeatableCommands() throws Exception {
+        Map<String, AtomicInteger> attempts = new ConcurrentHashMap<>();
+        // the first attempt of every command loses its connection
+        try (FakeServer server = new FakeServer(line ->
+                attempts.computeIfAbsent(line, k -> new AtomicInteger()).incrementAndGet() == 1
+                        ? FakeServer.DROP : "OK: 5 data");
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 1, 5000, 2)) {
+            assertEquals("5 data", client.read("f").join());
+            assertEquals(2, attempts.get("READ f").get());
+
+            assertInstanceOf(IOException.class, failure(client.delete("f")));
+            assertEquals(1, attempts.get("DELETE f").get(), "DELETE must not be repeated");
+
+            assertInstanceOf(IOException.class, failure(client.writeIfMatch("f", 3, "x")));
+            assertEquals(1, attempts.get("WRITE f IF-MATCH 3 x").get(), "A conditional write must not be repeated");
+        }
+    }
+
+    @Test
+    void testErrorRepliesFailWithTheServerMessage() throws Exception {
+        try (FakeServer server = new FakeServer(line -> "ERROR: File not found");
+             FileServiceClient client = new FileServiceClient("localhost", server.getPort(), 1, 5000, 2)) {
+            Throwable e = failure(client.read("missing"));
+            assertInstanceOf(FileServiceException.class, e);
+            assertEquals("File not found", e.getMessage());
+            assertEquals(1, server.received().size(), "Errors are answers, not failures to retry");
+        }
+    }
+}
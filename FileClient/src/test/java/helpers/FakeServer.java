@@ -0,0 +1,90 @@
+package helpers;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+// scripted stand-in for a FileServer on a free local port, answers each line with handler's reply
+public class FakeServer implements AutoCloseable {
+    // reply that closes the connection without answering
+    public static final String DROP = "<drop>";
+
+    private final ServerSocket socket;
+    private final Function<String, String> handler;
+    private final List<String> received = new CopyOnWriteArrayList<>();
+    private final AtomicInteger connections = new AtomicInteger();
+
+    // a null reply means the request is never answered
+    public FakeServer(Function<String, String> handler) throws IOException {
+        this.handler = handler;
+        socket = new ServerSocket(0);
+        Thread t = new Thread(this::accept, "fake-server");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    public int getPort() {
+        return socket.getLocalPort();
+    }
+
+    public String getAddress() {
+        return "localhost:" + getPort();
+    }
+
+    // every request line, in arrival order
+    public List<String> received() {
+        return received;
+    }
+
+    public int connections() {
+        return connections.get();
+    }
+
+    private void accept() {
+        try {
+            while (true) {
+                Socket client = socket.accept();
+                connections.incrementAndGet();
+                Thread t = new Thread(() -> serve(client), "fake-connection");
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (IOException e) {
+            //closed
+        }
+    }
+
+    private void serve(Socket client) {
+        try (client;
+             BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+            OutputStream out = client.getOutputStream();
+            String line;
+            while ((line = in.readLine()) != null) {
+                received.add(line);
+                String reply = handler.apply(line);
+                if (DROP.equals(reply)) {
+                    return;
+                }
+                if (reply != null) {
+                    out.write((reply + "\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                }
+            }
+        } catch (IOException e) {
+            //client went away
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+}
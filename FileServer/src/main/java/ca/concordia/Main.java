@@ -1,13 +1,98 @@
 package ca.concordia;
 
+import ca.concordia.cluster.Topology;
+import ca.concordia.server.AdmissionControl;
 import ca.concordia.server.FileServer;
 
+import java.nio.file.Path;
+
 public class Main {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         System.out.printf("Hello and welcome!");
 
-        FileServer server = new FileServer(12345, "filesystem.dat", 10 * 128);
+        // Optional arguments:
+        //   --port <port>                 client port (default 12345)
+        //   --fs <file>[,<file>...]       backing file(s), several files stripe the volume
+        //   --replication-port <port>     act as primary and ship the log on this port
+        //   --follow <host>:<port>        act as read-only follower of that primary
+        //   --cluster <file> --node <name>  serve this node's partition of the topology file
+        //   --max-connections <n>         refuse clients beyond n open connections (default 512)
+        //   --queue-deadline <ms>         refuse commands that wait longer for a slot (default 500)
+        //   --rate <n>                    requests per second per client address (default unlimited)
+        //   --defrag-interval <ms>        background defragmentation period, 0 turns it off (default 60000)
+        //   --write-back-delay <ms>       keep written data in memory this long before allocating blocks, 0 writes through (default 500)
+        int port = 12345;
+        String[] disks = {"filesystem.dat"};
+        int replicationPort = -1;
+        String follow = null;
+        String cluster = null;
+        String node = null;
+        int maxConnections = 512;
+        long queueDeadline = 500;
+        double rate = 0;
+        long defragInterval = 60000;
+        long writeBackDelay = 500;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port":
+                    port = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--fs":
+                    disks = args[i + 1].split(",");
+                    break;
+                case "--replication-port":
+                    replicationPort = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--follow":
+                    follow = args[i + 1];
+                    break;
+                case "--cluster":
+                    cluster = args[i + 1];
+                    break;
+                case "--node":
+                    node = args[i + 1];
+                    break;
+                case "--max-connections":
+                    maxConnections = Integer.parseInt(args[i + 1]);
+                    break;
+                case "--queue-deadline":
+                    queueDeadline = Long.parseLong(args[i + 1]);
+                    break;
+                case "--rate":
+                    rate = Double.parseDouble(args[i + 1]);
+                    break;
+                case "--defrag-interval":
+                    defragInterval = Long.parseLong(args[i + 1]);
+                    break;
+                case "--write-back-delay":
+                    writeBackDelay = Long.parseLong(args[i + 1]);
+                    break;
+                default:
+                    System.err.println("Unknown option: " + args[i]);
+            }
+        }
+
+        FileServer server = new FileServer(port, disks, 10 * 128);
+        //burst of one second worth of requests
+        server.setAdmissionControl(new AdmissionControl(maxConnections, 64, 1024, queueDeadline,
+                rate, (int) Math.max(1, Math.ceil(rate))));
+        if (writeBackDelay > 0) {
+            server.enableWriteBack(writeBackDelay);
+        }
+        if (defragInterval > 0) {
+            server.enableDefragmenter(defragInterval);
+        }
+        if (replicationPort > 0) {
+            server.enableReplication(replicationPort);
+        }
+        if (follow != null) {
+            int sep = follow.lastIndexOf(':');
+            server.followPrimary(follow.substring(0, sep), Integer.parseInt(follow.substring(sep + 1)));
+        }
+        if (cluster != null) {
+            server.joinCluster(Topology.load(Path.of(cluster)), node);
+        }
         // Start the file server
         server.start();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,49 @@
+package ca.concordia.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Maps filenames to nodes. Every node owns {@link #VIRTUAL_NODES} points on a 64-bit
+ * ring (MD5 of {@code "<name>#<i>"}); a file belongs to the first point at or after the
+ * MD5 of its name. Adding or removing a node only moves the keys next to its points.
+ *
+ * The FileClient router uses the same hashing, keep the two in sync.
+ */
+public class ConsistentHashRing {
+
+    public static final int VIRTUAL_NODES = 128;
+
+    private final TreeMap<Long, Topology.Node> ring = new TreeMap<>();
+
+    public ConsistentHashRing(Topology topology) {
+        for (Topology.Node node : topology.getNodes()) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                ring.put(hash(node.getName() + "#" + i), node);
+            }
+        }
+    }
+
+    // "/a/b" and "a/b" are the same file, so they must land on the same node
+    public Topology.Node ownerOf(String fileName) {
+        String canonical = fileName.startsWith("/") ? fileName.substring(1) : fileName;
+        Map.Entry<Long, Topology.Node> e = ring.ceilingEntry(hash(canonical));
+        return e != null ? e.getValue() : ring.firstEntry().getValue();
+    }
+
+    static long hash(String key) {
+        try {
+            byte[] d = MessageDigest.getInstance("MD5").digest(key.getBytes(StandardCharsets.UTF_8));
+            long h = 0;
+            for (int i = 0; i < 8; i++) {
+                h = (h << 8) | (d[i] & 0xff);
+            }
+            return h;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not available", e);
+        }
+    }
+}
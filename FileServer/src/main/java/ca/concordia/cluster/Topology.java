@@ -0,0 +1,97 @@
+package ca.concordia.cluster;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Cluster membership: the nodes the namespace is partitioned over.
+ *
+ * Text format, one node per line, blank lines and {@code #} comments ignored:
+ * <pre>
+ * node1 localhost:12345
+ * node2 localhost:12346
+ * </pre>
+ * Every server and client must load the same description, in any order.
+ */
+public class Topology {
+
+    public static final class Node {
+        private final String name;
+        private final String host;
+        private final int port;
+
+        public Node(String name, String host, int port) {
+            this.name = name;
+            this.host = host;
+            this.port = port;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getHost() {
+            return host;
+        }
+
+        public int getPort() {
+            return port;
+        }
+
+        public String getAddress() {
+            return host + ":" + port;
+        }
+
+        @Override
+        public String toString() {
+            return name + " " + getAddress();
+        }
+    }
+
+    private final List<Node> nodes;
+
+    public Topology(List<Node> nodes) {
+        if (nodes.isEmpty()) {
+            throw new IllegalArgumentException("Topology needs at least one node");
+        }
+        this.nodes = Collections.unmodifiableList(new ArrayList<>(nodes));
+    }
+
+    public static Topology load(Path file) throws IOException {
+        return parse(Files.readAllLines(file));
+    }
+
+    public static Topology parse(List<String> lines) {
+        List<Node> nodes = new ArrayList<>();
+        for (String raw : lines) {
+            String line = raw.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] parts = line.split("\\s+");
+            int sep = parts.length == 2 ? parts[1].lastIndexOf(':') : -1;
+            if (sep <= 0) {
+                throw new IllegalArgumentException("Bad topology line: " + raw);
+            }
+            nodes.add(new Node(parts[0], parts[1].substring(0, sep), Integer.parseInt(parts[1].substring(sep + 1))));
+        }
+        return new Topology(nodes);
+    }
+
+    public List<Node> getNodes() {
+        return nodes;
+    }
+
+    public Node getNode(String name) {
+        for (Node n : nodes) {
+            if (n.getName().equals(name)) {
+                return n;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,29 @@
+package ca.concordia.filesystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one block read, write or zero-fill issued to the block store
+ * (all devices of a striped request together).
+ */
+@Name("ca.concordia.BlockIO")
+@Label("Block I/O")
+@Category({"File Server", "Filesystem"})
+@Description("Block reads and writes against the backing files")
+final class BlockIoEvent extends Event {
+
+    @Label("Operation")
+    String operation;
+
+    @Label("Blocks")
+    int blocks;
+
+    @Label("Bytes")
+    @DataAmount
+    int bytes;
+}
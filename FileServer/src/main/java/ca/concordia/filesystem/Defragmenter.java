@@ -0,0 +1,74 @@
+package ca.concordia.filesystem;
+
+/**
+ * Background compaction: every {@code intervalMs} it walks all files and moves each
+ * fragmented one into a contiguous run with {@link FileSystemManager#defragment}.
+ * It waits {@code pauseMs} after every moved file so client I/O keeps priority.
+ */
+public class Defragmenter {
+
+    private final FileSystemManager fsManager;
+    private final long intervalMs;
+    private final long pauseMs;
+    private volatile long movedFiles = 0;
+    private volatile double lastFragmentation = 0;
+
+    public Defragmenter(FileSystemManager fsManager, long intervalMs, long pauseMs) {
+        this.fsManager = fsManager;
+        this.intervalMs = intervalMs;
+        this.pauseMs = pauseMs;
+    }
+
+    public void start() {
+        Thread t = new Thread(this::run, "defragmenter");
+        t.setDaemon(true);
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    // one pass over every file, returns how many were moved
+    public int runOnce() throws InterruptedException {
+        double before = fsManager.fragmentation();
+        int moved = 0;
+        if (before > 0) {
+            for (String name : fsManager.listFiles()) {
+                try {
+                    if (fsManager.defragment(name)) {
+                        moved++;
+                        Thread.sleep(pauseMs);
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Exception e) {
+                    //deleted or renamed meanwhile, the next pass sees the new state
+                }
+            }
+        }
+        lastFragmentation = fsManager.fragmentation();
+        movedFiles += moved;
+        if (moved > 0) {
+            System.out.printf("Defragmented %d file(s), fragmentation %.2f -> %.2f%n", moved, before, lastFragmentation);
+        }
+        return moved;
+    }
+
+    public long getMovedFiles() {
+        return movedFiles;
+    }
+
+    // fragmentation measured after the last pass
+    public double getLastFragmentation() {
+        return lastFragmentation;
+    }
+
+    private void run() {
+        try {
+            while (true) {
+                Thread.sleep(intervalMs);
+                runOnce();
+            }
+        } catch (InterruptedException e) {
+            //shutting down
+        }
+    }
+}
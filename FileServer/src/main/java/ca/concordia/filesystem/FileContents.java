@@ -0,0 +1,24 @@
+package ca.concordia.filesystem;
+
+/**
+ * Contents of a file together with the version they belong to, both taken from the
+ * same metadata snapshot.
+ */
+public class FileContents {
+
+    private final byte[] data;
+    private final long version;
+
+    public FileContents(byte[] data, long version) {
+        this.data = data;
+        this.version = version;
+    }
+
+    public byte[] getData() {
+        return data;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
@@ -0,0 +1,43 @@
+package ca.concordia.filesystem;
+
+/**
+ * Listing and stat entry: full path, size in bytes, last modification time (epoch millis),
+ * inode index and version. (inode, version) identifies one content of one file: versions
+ * are never reused, not even after the file is deleted and its inode recycled.
+ */
+public class FileInfo {
+
+    private final String path;
+    private final int size;
+    private final long modified;
+    private final int inode;
+    private final long version;
+
+    public FileInfo(String path, int size, long modified, int inode, long version) {
+        this.path = path;
+        this.size = size;
+        this.modified = modified;
+        this.inode = inode;
+        this.version = version;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public long getModified() {
+        return modified;
+    }
+
+    public int getInode() {
+        return inode;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+}
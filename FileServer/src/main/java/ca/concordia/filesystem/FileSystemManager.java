@@ -1,83 +1,116 @@
 package ca.concordia.filesystem;
 
-import ca.concordia.filesystem.datastructures.FEntry;
-import ca.concordia.filesystem.datastructures.FNode;
+import ca.concordia.filesystem.datastructures.Directory;
+import ca.concordia.filesystem.datastructures.FNodeTable;
+import ca.concordia.filesystem.datastructures.InodeTable;
 
-import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.util.ArrayList;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
 
-public class FileSystemManager {
+public class FileSystemManager implements AutoCloseable {
 
     private final int MAXFILES = 5;
     private final int MAXBLOCKS = 10;
+    private final int MAXDIRS = 8;
+    //limits in characters, per path component and for the whole path
+    private static final int MAX_NAME = 255;
+    private static final int MAX_PATH = 4096;
     private static final int BLOCK_SIZE = 128;
+    //optimistic read attempts before a reader falls back to the writer lock
+    private static final int MAX_READ_RETRIES = 8;
+    //expected version of an unconditional write
+    public static final long ANY_VERSION = -1;
 
-    private final RandomAccessFile disk;
+    //data blocks, striped over one or more backing files
+    private final StripedBlockStore store;
 
-    private final FEntry[] inodeTable;
-    private final boolean[] freeBlockList;
-    private final FNode[] fnodes;
+    //current metadata version, readers never lock it
+    private final AtomicReference<MetadataSnapshot> current;
 
-    //reader/writer lock
-    private final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock();
-    //Shortcuts references for read/write access
-    private final Lock readLock = rwLock.readLock();
-    private final Lock writeLock = rwLock.writeLock();
+    //per block: bumped before and after every write to it (odd while the write runs). Every
+    //snapshot records the value of the blocks it references, so a reader only retries when a
+    //block it actually read was rewritten, not whenever some other file is written
+    private final AtomicLongArray blockSeq;
+
+    //writers are serialized, they build the next snapshot and publish it
+    private final ReentrantLock writeLock = new ReentrantLock();
+    //last version handed out, only changed under writeLock
+    private long lastVersion = 0;
+    //0 = write-through; otherwise written data stays buffered this long before it gets blocks
+    private volatile long writeBackDelayMs = 0;
+    //set by close(), the backing files are released
+    private volatile boolean closed = false;
+    //inode -> when its buffered data was first written (valid while pending, only used under writeLock)
+    private final long[] bufferedSince = new long[MAXFILES];
+
+    //change feed, notified in commit order under the writer lock
+    private final List<MutationListener> listeners = new CopyOnWriteArrayList<>();
 
     public FileSystemManager(String filename, int totalSize) {
-        try {
-            //create empty inode table
-            inodeTable = new FEntry[MAXFILES];
-            freeBlockList = new boolean[MAXBLOCKS];
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                freeBlockList[i] = true;
-            }
+        this(new String[]{filename}, totalSize);
+    }
 
-            fnodes = new FNode[MAXBLOCKS];
-            for (int i = 0; i < MAXBLOCKS; i++) {
-                fnodes[i] = new FNode();
-            }
+    // one backing file per disk, blocks are striped across them
+    public FileSystemManager(String[] filenames, int totalSize) {
+        try {
+            //create empty inode table, free list and fnodes
+            current = new AtomicReference<>(new MetadataSnapshot(MAXFILES, MAXBLOCKS, MAXDIRS));
+            blockSeq = new AtomicLongArray(MAXBLOCKS);
 
-            //open the disk file
-            File f = new File(filename);
-            disk = new RandomAccessFile(f, "rw");
-            //check if disk file is correct size
-            if (!f.exists() || disk.length() < totalSize) {
-                disk.setLength(totalSize);
-            }
+            //open the disk files
+            int totalBlocks = Math.max(MAXBLOCKS, (totalSize + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            store = new StripedBlockStore(filenames, totalBlocks, BLOCK_SIZE);
         } catch (IOException e) {
             throw new RuntimeException("Error opening file: " + e.getMessage(), e);
         }
     }
 
-    // create <filename>
+    // create <path>, the parent directory must exist
     public void createFile(String fileName) throws Exception {
+        String[] parts = parsePath(fileName);
+        String path = String.join("/", parts);
+        String leaf = parts[parts.length - 1];
+
         //lock around the critical section
-        writeLock.lock();
+        lockWriter();
         try {
-            ensureValidName(fileName);
+            MetadataSnapshot snap = current.get();
+            int parent = resolveParent(snap, parts);
+            if (parent == -1) {
+                throw new Exception("Directory not found");
+            }
 
             //Check if file already exists
-            int existing = findFileIndex(fileName);
-            if (existing != -1) {
+            Directory dir = snap.directories[parent];
+            int pos = dir.find(leaf);
+            if (pos >= 0) {
+                if (dir.isDirAt(pos)) {
+                    throw new Exception("Is a directory");
+                }
                 return;
             }
 
             //Finds a free slot in the inode table
-            int slot = findFreeInode();
+            int slot = findFreeInode(snap);
             if (slot == -1) {
                 throw new Exception("No free file entries");
             }
 
-            //create a new inode
-            FEntry fe = new FEntry(fileName);
-            fe.setFilesize((short) 0);
-            fe.setFirstBlock((short) -1);
-            inodeTable[slot] = fe;
+            //create a new inode in the next version
+            MetadataSnapshot next = snap.copy();
+            next.writableInodes().allocate(slot, System.currentTimeMillis(), ++lastVersion);
+            next.setDirectory(parent, dir.with(leaf, Directory.FILE, slot));
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onCreate(path);
+            }
         } finally {
             writeLock.unlock();
         }
@@ -85,22 +118,32 @@ public class FileSystemManager {
 
     // delete <filename>
     public void deleteFile(String fileName) throws Exception {
-        writeLock.lock();
+        String[] parts = parsePath(fileName);
+        String path = String.join("/", parts);
+
+        lockWriter();
         try {
-            //search for the file in the inode entry
-            int idx = findFileIndex(fileName);
+            MetadataSnapshot next = current.get().copy();
+
+            //search for the file in its directory
+            int parent = resolveParent(next, parts);
+            int idx = findFileIndex(next, parts);
             if (idx == -1) {
                 throw new Exception("File not found");
             }
-            FEntry fe = inodeTable[idx];
-
-            short firstFNode = fe.getFirstBlock();
+            short firstFNode = next.inodes.getFirstBlock(idx);
             if (firstFNode >= 0) {
-                freeChain(firstFNode, true);
+                freeChain(next, firstFNode, true);
             }
 
-            //remove the inode entry from the table
-            inodeTable[idx] = null;
+            //remove the inode entry from the table and its directory; buffered data is just dropped
+            next.setPending(idx, null);
+            next.writableInodes().free(idx);
+            next.setDirectory(parent, next.directories[parent].without(parts[parts.length - 1]));
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onDelete(path);
+            }
         } finally {
             writeLock.unlock();
         }
@@ -108,18 +151,38 @@ public class FileSystemManager {
 
     // write <filename> <contents>
     public void writeFile(String fileName, byte[] contents) throws Exception {
+        writeFile(fileName, contents, ANY_VERSION);
+    }
+
+    /**
+     * Compare-and-set write: replaces the contents only if the file is still at
+     * {@code expectedVersion} ({@link #ANY_VERSION} skips the check). Returns the new
+     * version.
+     */
+    public long writeFile(String fileName, byte[] contents, long expectedVersion) throws Exception {
         if (contents == null) {
             contents = new byte[0];
         }
+        String[] parts = parsePath(fileName);
+        String path = String.join("/", parts);
 
-        writeLock.lock();
+        lockWriter();
         try {
+            //buffered data would never reach the disk
+            if (closed) {
+                throw new Exception("Filesystem is closed");
+            }
+            MetadataSnapshot next = current.get().copy();
+
             //find the inode for the file
-            int idx = findFileIndex(fileName);
+            int idx = findFileIndex(next, parts);
             if (idx == -1) {
                 throw new Exception("File not found");
             }
-            FEntry fe = inodeTable[idx];
+            InodeTable inodes = next.writableInodes();
+            if (expectedVersion != ANY_VERSION && inodes.getVersion(idx) != expectedVersion) {
+                throw new Exception("Version mismatch (current " + inodes.getVersion(idx) + ")");
+            }
 
             int size = contents.length;
             int maxBytes = MAXBLOCKS * BLOCK_SIZE;
@@ -127,266 +190,1211 @@ public class FileSystemManager {
                 throw new Exception("File is too big (max " + maxBytes + " bytes)");
             }
 
-            //clear the file
-            if (size == 0) {
-                short oldFirst = fe.getFirstBlock();
-                if (oldFirst >= 0) {
-                    freeChain(oldFirst, false);
-                }
-                fe.setFirstBlock((short) -1);
-                fe.setFilesize((short) 0);
-                return;
+            short oldFirst = inodes.getFirstBlock(idx);
+            if (oldFirst >= 0) {
+                freeChain(next, oldFirst, false);
             }
+            inodes.setFirstBlock(idx, (short) -1);
 
-            int neededBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            //delayed allocation: the data stays in memory, blocks are only picked when it is flushed
+            byte[] data = contents.clone();
+            reserveSpace(next, idx, data);
+            if (next.pending[idx] == null) {
+                bufferedSince[idx] = System.currentTimeMillis();
+            }
+            next.setPending(idx, data);
+            inodes.setSize(idx, size);
+            inodes.touch(idx, System.currentTimeMillis(), ++lastVersion);
+            if (writeBackDelayMs == 0) {
+                flushLocked(next, idx);
+            } else {
+                current.set(next);
+            }
+            for (MutationListener l : listeners) {
+                l.onWrite(path, contents);
+            }
+            return lastVersion;
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            short oldFirst = fe.getFirstBlock();
-            if (oldFirst >= 0) {
-                freeChain(oldFirst, false);
+    /**
+     * Keep written data in memory for delayMs before picking its blocks, instead of
+     * writing it through. A background thread flushes files that have been buffered longer
+     * than that (a file rewritten non-stop still reaches the disk within the delay);
+     * a file deleted before then never costs any disk I/O.
+     */
+    public void enableWriteBack(long delayMs) {
+        if (delayMs <= 0 || writeBackDelayMs > 0) {
+            return;
+        }
+        writeBackDelayMs = delayMs;
+        Thread t = new Thread(() -> {
+            try {
+                while (!closed) {
+                    Thread.sleep(Math.max(10, delayMs / 2));
+                    try {
+                        flushOlderThan(System.currentTimeMillis() - delayMs);
+                    } catch (Exception e) {
+                        //still buffered, the next round tries again; flush() and close() report it
+                        System.err.println(e.getMessage());
+                    }
+                }
+            } catch (InterruptedException e) {
+                //shutting down
             }
+        }, "write-back");
+        t.setDaemon(true);
+        t.start();
+    }
 
-            int[] fnodeIdx = new int[neededBlocks];
-            int[] blockIdx = new int[neededBlocks];
+    /**
+     * Flushes buffered data, stops the device queues and closes the backing files.
+     * Calls made afterwards fail. The volume is closed even if a buffered file could not
+     * be written; that failure is then thrown, since the file's latest data is lost.
+     */
+    @Override
+    public void close() throws IOException {
+        lockWriter();
+        try {
+            if (closed) {
+                return;
+            }
+            try {
+                flushOlderThan(Long.MAX_VALUE);
+            } catch (Exception e) {
+                throw new IOException("Buffered data was not written: " + e.getMessage(), e);
+            } finally {
+                closed = true;
+                store.close();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            for (int i = 0; i < neededBlocks; i++) {
-                int fn = findFreeFNode();
-                int blk = findFreeBlock();
+    // writes every buffered file to disk now (e.g. before shutting down); throws if one could not be written
+    public void flush() throws Exception {
+        flushOlderThan(Long.MAX_VALUE);
+    }
 
-                if (fn == -1 || blk == -1) {
-                    for (int j = 0; j < i; j++) {
-                        int blkUsed = blockIdx[j];
-                        if (blkUsed >= 0) {
-                            freeBlockList[blkUsed] = true;
+    //tries every due file, a failed one stays buffered; the first failure is thrown at the end
+    private void flushOlderThan(long bufferedBefore) throws Exception {
+        lockWriter();
+        try {
+            Exception failure = null;
+            MetadataSnapshot snap = current.get();
+            for (int i = 0; i < MAXFILES; i++) {
+                if (snap.pending[i] != null && bufferedSince[i] < bufferedBefore) {
+                    try {
+                        flushLocked(current.get().copy(), i);
+                    } catch (Exception e) {
+                        if (failure == null) {
+                            failure = new Exception("Flush of inode " + i + " failed: " + e.getMessage(), e);
                         }
-                        fnodes[fnodeIdx[j]].reset();
                     }
-                    throw new Exception("no free space");
                 }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-                fnodeIdx[i] = fn;
-                blockIdx[i] = blk;
+    /**
+     * Gives the buffered data of one inode its blocks: one contiguous run if there is
+     * one (first fit otherwise), written with one positional write per device run,
+     * then publishes next. The contents and version do not change. Caller holds the
+     * writer lock.
+     */
+    private void flushLocked(MetadataSnapshot next, int idx) throws Exception {
+        byte[] data = next.pending[idx];
+        if (data == null) {
+            current.set(next);
+            return;
+        }
+        int size = data.length;
 
-                freeBlockList[blk] = false;
-                fnodes[fn].setBlockIndex((short) blk);
+        //all-zero blocks are stored as holes, trailing ones are left out of the chain entirely
+        int neededBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        boolean[] hole = new boolean[neededBlocks];
+        int chainLength = 0;
+        int dataBlocks = 0;
+        for (int i = 0; i < neededBlocks; i++) {
+            int off = i * BLOCK_SIZE;
+            hole[i] = isZero(data, off, Math.min(BLOCK_SIZE, size - off));
+            if (!hole[i]) {
+                chainLength = i + 1;
+                dataBlocks++;
             }
+        }
 
-            // Link fnodes into a chain (like linked list)
-            for (int i = 0; i < neededBlocks; i++) {
-                if (i == neededBlocks - 1) {
-                    fnodes[fnodeIdx[i]].setNextBlock(FNode.NO_NEXT);
-                } else {
-                    fnodes[fnodeIdx[i]].setNextBlock((short) fnodeIdx[i + 1]);
-                }
+        //this file's own reservation is what it uses now, only the others' must stay untouched
+        ensureSpace(next, idx, chainLength, dataBlocks);
+        int[] fnodeIdx = new int[chainLength];
+        short[] blocks = new short[chainLength];
+        int run = findFreeRun(next, dataBlocks);
+
+        //allocation only touches the unpublished copy, so failing here needs no rollback
+        for (int i = 0; i < chainLength; i++) {
+            int fn = findFreeFNode(next);
+            int blk = hole[i] ? FNodeTable.HOLE : (run >= 0 ? run++ : findFreeBlock(next));
+
+            if (fn == -1 || blk == -1) {
+                throw new Exception("no free space");
+            }
+
+            fnodeIdx[i] = fn;
+            blocks[i] = (short) blk;
+
+            if (!hole[i]) {
+                next.setBlockRef(blk, 1);
+            }
+            next.writableFNodes().setBlockIndex(fn, (short) blk);
+        }
+
+        // Link fnodes into a chain (like linked list)
+        for (int i = 0; i < chainLength; i++) {
+            if (i == chainLength - 1) {
+                next.writableFNodes().setNextBlock(fnodeIdx[i], FNodeTable.NO_NEXT);
+            } else {
+                next.writableFNodes().setNextBlock(fnodeIdx[i], (short) fnodeIdx[i + 1]);
             }
+        }
+
+        //one request per device, the devices are written in parallel; holes are skipped
+        writeBlocks(next, blocks, data, size);
 
-            //this ap^rt allows to write
-            int offset = 0;
-            for (int i = 0; i < neededBlocks; i++) {
-                short blk = (short) blockIdx[i];
-                int remaining = size - offset;
-                int len = Math.min(BLOCK_SIZE, remaining);
+        next.writableInodes().setFirstBlock(idx, chainLength == 0 ? (short) -1 : (short) fnodeIdx[0]);
+        next.setPending(idx, null);
+        current.set(next);
+    }
+
+    /**
+     * truncate <filename> <size>: shrinks or grows the file without rewriting it.
+     * Growing only changes the size, the new range is a hole and reads as zeros.
+     * Shrinking frees the blocks past the new end and zeroes the tail of the new
+     * last block, so a later grow never exposes old bytes.
+     */
+    public void truncateFile(String fileName, int newSize) throws Exception {
+        String[] parts = parsePath(fileName);
+        String path = String.join("/", parts);
+        int maxBytes = MAXBLOCKS * BLOCK_SIZE;
+        if (newSize < 0 || newSize > maxBytes) {
+            throw new Exception("Invalid size (max " + maxBytes + " bytes)");
+        }
+
+        lockWriter();
+        try {
+            MetadataSnapshot next = current.get().copy();
+            int idx = findFileIndex(next, parts);
+            if (idx == -1) {
+                throw new Exception("File not found");
+            }
+            InodeTable inodes = next.writableInodes();
 
-                writeBlock(blk, contents, offset, len);
+            //still buffered: only the buffer changes
+            if (next.pending[idx] != null) {
+                next.setPending(idx, Arrays.copyOf(next.pending[idx], newSize));
+                inodes.setSize(idx, newSize);
+                inodes.touch(idx, System.currentTimeMillis(), ++lastVersion);
+                current.set(next);
+                for (MutationListener l : listeners) {
+                    l.onTruncate(path, newSize);
+                }
+                return;
+            }
 
-                if (len < BLOCK_SIZE) {
-                    zeroBlockRange(blk, len, BLOCK_SIZE - len);
+            //keep the fnodes that still cover data, cut the chain after them
+            int keep = (newSize + BLOCK_SIZE - 1) / BLOCK_SIZE;
+            short fn = inodes.getFirstBlock(idx);
+            short last = -1;
+            int kept = 0;
+            for (; kept < keep && fn >= 0; kept++) {
+                last = fn;
+                short n = next.fnodes.getNextBlock(fn);
+                fn = n == FNodeTable.NO_NEXT ? -1 : n;
+            }
+            if (fn >= 0) {
+                freeChain(next, fn, false);
+                if (last >= 0) {
+                    next.writableFNodes().setNextBlock(last, FNodeTable.NO_NEXT);
+                } else {
+                    inodes.setFirstBlock(idx, (short) -1);
                 }
+            }
 
-                offset += len;
+            //shrinking inside a block: the cut-off bytes must read as zeros if the file grows again
+            //(a chain shorter than the new size ends in a hole, nothing to clear there)
+            int tail = newSize % BLOCK_SIZE;
+            short tailBlock = FNodeTable.HOLE;
+            if (newSize < inodes.getSize(idx) && tail != 0 && kept == keep) {
+                tailBlock = next.fnodes.getBlockIndex(last);
             }
 
-            fe.setFirstBlock((short) fnodeIdx[0]);
-            fe.setFilesize((short) size);
+            if (isValidBlock(tailBlock) && next.blockRefs[tailBlock] > 1) {
+                //shared with a copy: give this file its own block before changing it
+                unshareBlock(next, last, tail);
+            } else if (isValidBlock(tailBlock)) {
+                zeroRange(next, tailBlock, tail, BLOCK_SIZE - tail);
+            }
+            inodes.setSize(idx, newSize);
+            inodes.touch(idx, System.currentTimeMillis(), ++lastVersion);
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onTruncate(path, newSize);
+            }
         } finally {
             writeLock.unlock();
         }
     }
 
-    // read <filename>
-    public byte[] readFile(String fileName) throws Exception {
-        readLock.lock();
+    // rename <from> <to>: moves the directory entry, the inode and its blocks stay where they are
+    public void renameFile(String from, String to) throws Exception {
+        String[] src = parsePath(from);
+        String[] dst = parsePath(to);
+        String srcPath = String.join("/", src);
+        String dstPath = String.join("/", dst);
+
+        lockWriter();
         try {
-            //find the inode for the file
-            int idx = findFileIndex(fileName);
+            MetadataSnapshot snap = current.get();
+            int idx = findFileIndex(snap, src);
             if (idx == -1) {
                 throw new Exception("File not found");
             }
-            FEntry fe = inodeTable[idx];
+            if (srcPath.equals(dstPath)) {
+                return;
+            }
+            int dstParent = resolveParent(snap, dst);
+            if (dstParent == -1) {
+                throw new Exception("Directory not found");
+            }
+            String dstLeaf = dst[dst.length - 1];
+            if (snap.directories[dstParent].find(dstLeaf) >= 0) {
+                throw new Exception("File exists");
+            }
 
-            //determine the size of the file
-            int size = Short.toUnsignedInt(fe.getFilesize());
-            byte[] out = new byte[size];
-            if (size == 0) {
-                return out;
+            MetadataSnapshot next = snap.copy();
+            int srcParent = resolveParent(next, src);
+            next.setDirectory(srcParent, next.directories[srcParent].without(src[src.length - 1]));
+            next.setDirectory(dstParent, next.directories[dstParent].with(dstLeaf, Directory.FILE, idx));
+            next.writableInodes().touch(idx, System.currentTimeMillis(), ++lastVersion);
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onRename(srcPath, dstPath);
             }
+        } finally {
+            writeLock.unlock();
+        }
+    }
 
-            short fnodeIndex = fe.getFirstBlock();
-            if (fnodeIndex < 0) {
-                throw new Exception("data missing");
+    /**
+     * copy <from> <to>: the new file gets its own fnode chain pointing at the same
+     * blocks (reflink style), no data is read or written. Shared blocks are never
+     * changed in place; writes allocate new blocks anyway and TRUNCATE copies the one
+     * block it would modify.
+     */
+    public void copyFile(String from, String to) throws Exception {
+        String[] src = parsePath(from);
+        String[] dst = parsePath(to);
+        String srcPath = String.join("/", src);
+        String dstPath = String.join("/", dst);
+
+        lockWriter();
+        try {
+            MetadataSnapshot snap = current.get();
+            int idx = findFileIndex(snap, src);
+            if (idx == -1) {
+                throw new Exception("File not found");
+            }
+            int dstParent = resolveParent(snap, dst);
+            if (dstParent == -1) {
+                throw new Exception("Directory not found");
+            }
+            String dstLeaf = dst[dst.length - 1];
+            if (snap.directories[dstParent].find(dstLeaf) >= 0) {
+                throw new Exception("File exists");
+            }
+            int slot = findFreeInode(snap);
+            if (slot == -1) {
+                throw new Exception("No free file entries");
+            }
+
+            //the mirrored chain must not use fnodes promised to buffered files
+            int chainLength = 0;
+            for (short fn = snap.inodes.getFirstBlock(idx); fn >= 0; chainLength++) {
+                short n = snap.fnodes.getNextBlock(fn);
+                fn = n == FNodeTable.NO_NEXT ? -1 : n;
             }
+            ensureSpace(snap, -1, chainLength, 0);
 
-            int offset = 0;
-            //traverse the linked list to reqd the file in order
-            while (fnodeIndex >= 0 && offset < size) {
-                FNode node = fnodes[fnodeIndex];
-                short blk = node.getBlockIndex();
-                if (!isValidBlock(blk)) {
-                    throw new Exception("data missing");
+            MetadataSnapshot next = snap.copy();
+            FNodeTable fnodes = chainLength == 0 ? next.fnodes : next.writableFNodes();
+            //mirror the chain: same blocks (and holes), new fnodes
+            short first = -1;
+            short prev = -1;
+            for (short fn = next.inodes.getFirstBlock(idx); fn >= 0; ) {
+                int copy = findFreeFNode(next);
+                if (copy == -1) {
+                    throw new Exception("no free space");
+                }
+                short blk = fnodes.getBlockIndex(fn);
+                fnodes.setBlockIndex(copy, blk);
+                fnodes.setNextBlock(copy, FNodeTable.NO_NEXT);
+                if (isValidBlock(blk)) {
+                    next.addBlockRef(blk, 1);
+                }
+                if (prev >= 0) {
+                    fnodes.setNextBlock(prev, (short) copy);
+                } else {
+                    first = (short) copy;
                 }
+                prev = (short) copy;
 
-                int remaining = size - offset;
-                int len = Math.min(BLOCK_SIZE, remaining);
+                short n = fnodes.getNextBlock(fn);
+                fn = n == FNodeTable.NO_NEXT ? -1 : n;
+            }
 
-                readBlock(blk, out, offset, len);
-                offset += len;
+            //buffered source: the copy shares the (never modified) buffer
+            if (next.pending[idx] != null) {
+                reserveSpace(next, slot, next.pending[idx]);
+                next.setPending(slot, next.pending[idx]);
+                bufferedSince[slot] = bufferedSince[idx];
+            }
 
-                short next = node.getNextBlock();
-                if (next == FNode.NO_NEXT) {
-                    break;
-                }
-                fnodeIndex = next;
+            InodeTable inodes = next.writableInodes();
+            inodes.allocate(slot, System.currentTimeMillis(), ++lastVersion);
+            inodes.setFirstBlock(slot, first);
+            inodes.setSize(slot, inodes.getSize(idx));
+            next.setDirectory(dstParent, next.directories[dstParent].with(dstLeaf, Directory.FILE, slot));
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onCopy(srcPath, dstPath);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // read <filename>
+    public byte[] readFile(String fileName) throws Exception {
+        return readVersioned(fileName).getData();
+    }
+
+    // contents and the version they belong to, e.g. for conditional reads
+    public FileContents readVersioned(String fileName) throws Exception {
+        String[] parts = parsePath(fileName);
+
+        //optimistic: walk the published snapshot without locking, retry if one of its blocks was rewritten
+        for (int attempt = 0; attempt < MAX_READ_RETRIES; attempt++) {
+            FileContents out = readFrom(current.get(), parts);
+            if (out != null) {
+                return out;
             }
+            Thread.onSpinWait();
+        }
 
+        //the file's own blocks keep changing: read under the writer lock so we always make progress
+        lockWriter();
+        try {
+            FileContents out = readFrom(current.get(), parts);
+            if (out == null) {
+                throw new Exception("data changed during read");
+            }
             return out;
         } finally {
-            readLock.unlock();
+            writeLock.unlock();
+        }
+    }
+
+    // stat <path>: size, times, inode and version without reading any data
+    public FileInfo stat(String fileName) throws Exception {
+        String[] parts = parsePath(fileName);
+        MetadataSnapshot snap = current.get();
+        int idx = findFileIndex(snap, parts);
+        if (idx == -1) {
+            throw new Exception("File not found");
+        }
+        return toInfo(String.join("/", parts), idx, snap.inodes);
+    }
+
+    /**
+     * Inode of the file at a path given as UTF-8 bytes (e.g. straight from a request
+     * buffer), -1 if there is no such file or the path is not valid. Each component is
+     * looked up in the directory's byte arena as it is, so nothing is decoded or allocated.
+     */
+    public int findInode(byte[] path, int off, int len) {
+        MetadataSnapshot snap = current.get();
+        int end = off + len;
+        if (off < end && path[off] == '/') {
+            off++;
+        }
+        int id = 0;
+        while (true) {
+            int slash = off;
+            while (slash < end && path[slash] != '/') {
+                slash++;
+            }
+            //an empty, "." or ".." component is never an entry, so invalid paths end up here too
+            Directory dir = snap.directories[id];
+            int pos = dir.find(path, off, slash - off);
+            if (pos < 0) {
+                return -1;
+            }
+            if (slash == end) {
+                return dir.isDirAt(pos) ? -1 : dir.refAt(pos);
+            }
+            if (!dir.isDirAt(pos)) {
+                return -1;
+            }
+            id = dir.refAt(pos);
+            off = slash + 1;
         }
     }
 
-    // list
+    // current version of an inode, -1 if it is free; versions are never handed out twice,
+    // so checking one against an inode number that went stale can only fail
+    public long versionOf(int inode) {
+        InodeTable inodes = current.get().inodes;
+        return inode >= 0 && inode < inodes.capacity() && inodes.isUsed(inode) ? inodes.getVersion(inode) : -1;
+    }
+
+    // list: full path of every file, walking the tree in name order
     public String[] listFiles() {
-        readLock.lock();
+        ArrayList<String> names = new ArrayList<>();
+        collect(current.get(), 0, "", names, false);
+        return names.toArray(new String[0]);
+    }
+
+    /**
+     * One page of the files whose path starts with {@code prefix}, resuming after
+     * {@code cursor} (the last path of the previous page, null for the first page).
+     * Paths are ordered component by component, the same order as {@link #listFiles()}.
+     * Only the directories on the way to the page are visited, never the whole tree.
+     */
+    public ListPage listFiles(String prefix, String cursor, int limit) throws Exception {
+        if (limit < 1) {
+            throw new Exception("Invalid limit");
+        }
+        String p = prefix == null ? "" : (prefix.startsWith("/") ? prefix.substring(1) : prefix);
+        String[] after = cursor == null || cursor.isEmpty() ? null : parsePath(cursor);
+
+        ArrayList<FileInfo> out = new ArrayList<>(Math.min(limit, 64));
+        boolean more = walk(current.get(), 0, "", p, after, 0, limit, out);
+        String next = more ? out.get(out.size() - 1).getPath() : null;
+        return new ListPage(out.toArray(new FileInfo[0]), next);
+    }
+
+    // every directory except the root, parents before children
+    public String[] listDirectories() {
+        ArrayList<String> names = new ArrayList<>();
+        collect(current.get(), 0, "", names, true);
+        return names.toArray(new String[0]);
+    }
+
+    // entries of one directory ("" or "/" is the root), subdirectories end with '/'
+    public String[] listDirectory(String dirPath) throws Exception {
+        MetadataSnapshot snap = current.get();
+        int id = resolveDirectory(snap, dirPath);
+        if (id == -1) {
+            throw new Exception("Directory not found");
+        }
+        Directory dir = snap.directories[id];
+        String[] names = new String[dir.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = dir.isDirAt(i) ? dir.nameAt(i) + "/" : dir.nameAt(i);
+        }
+        return names;
+    }
+
+    // mkdir <path>, the parent directory must exist
+    public void createDirectory(String dirPath) throws Exception {
+        String[] parts = parsePath(dirPath);
+        String path = String.join("/", parts);
+        String leaf = parts[parts.length - 1];
+
+        lockWriter();
+        try {
+            MetadataSnapshot snap = current.get();
+            int parent = resolveParent(snap, parts);
+            if (parent == -1) {
+                throw new Exception("Directory not found");
+            }
+            Directory dir = snap.directories[parent];
+            int pos = dir.find(leaf);
+            if (pos >= 0) {
+                if (!dir.isDirAt(pos)) {
+                    throw new Exception("File exists");
+                }
+                return;
+            }
+
+            int id = findFreeDirectory(snap);
+            if (id == -1) {
+                throw new Exception("No free directory entries");
+            }
+
+            MetadataSnapshot next = snap.copy();
+            next.setDirectory(id, Directory.EMPTY);
+            next.setDirectory(parent, dir.with(leaf, Directory.DIR, id));
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onMkdir(path);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    // rmdir <path>, only empty directories
+    public void deleteDirectory(String dirPath) throws Exception {
+        String[] parts = parsePath(dirPath);
+        String path = String.join("/", parts);
+        String leaf = parts[parts.length - 1];
+
+        lockWriter();
+        try {
+            MetadataSnapshot snap = current.get();
+            int parent = resolveParent(snap, parts);
+            Directory dir = parent == -1 ? null : snap.directories[parent];
+            int pos = dir == null ? -1 : dir.find(leaf);
+            if (pos < 0 || !dir.isDirAt(pos)) {
+                throw new Exception("Directory not found");
+            }
+            int id = dir.refAt(pos);
+            if (snap.directories[id].size() > 0) {
+                throw new Exception("Directory not empty");
+            }
+
+            MetadataSnapshot next = snap.copy();
+            next.setDirectory(id, null);
+            next.setDirectory(parent, dir.without(leaf));
+            current.set(next);
+            for (MutationListener l : listeners) {
+                l.onRmdir(path);
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Moves the data blocks of one file into a run of consecutive free blocks, so a
+     * read becomes one sequential pass per device. The run is reserved under the
+     * writer lock, the data is copied without it, and the new chain is only published
+     * if the file's version did not change meanwhile; otherwise the reservation is
+     * dropped. Readers never wait, writers only for the two short metadata steps.
+     * Files with shared (copied) blocks are left alone.
+     * Returns true if the file was moved.
+     */
+    public boolean defragment(String fileName) throws Exception {
+        String[] parts = parsePath(fileName);
+        short[] oldBlocks;
+        short[] newBlocks;
+        long version;
+
+        //reserve a free run, nobody else can allocate it until we publish or release it
+        lockWriter();
         try {
-            ArrayList<String> names = new ArrayList<>();
-            //inode table represents the filesystem directory structure
-            for (FEntry fe : inodeTable) {
-                if (fe != null) {
-                    names.add(fe.getFilename());
+            MetadataSnapshot snap = current.get();
+            int idx = findFileIndex(snap, parts);
+            if (idx == -1) {
+                throw new Exception("File not found");
+            }
+            oldBlocks = dataBlocks(snap, idx);
+            if (oldBlocks.length < 2 || runsOf(oldBlocks) == 1) {
+                return false;
+            }
+            for (short b : oldBlocks) {
+                if (snap.blockRefs[b] > 1) {
+                    return false;
                 }
             }
-            return names.toArray(new String[0]);
+            //the run comes out of free space not promised to buffered files
+            if (available(snap, -1)[1] < oldBlocks.length) {
+                return false;
+            }
+            int start = findFreeRun(snap, oldBlocks.length);
+            if (start == -1) {
+                return false;
+            }
+            newBlocks = new short[oldBlocks.length];
+            MetadataSnapshot next = snap.copy();
+            for (int i = 0; i < newBlocks.length; i++) {
+                newBlocks[i] = (short) (start + i);
+                next.setBlockRef(start + i, 1);
+            }
+            version = snap.inodes.getVersion(idx);
+            current.set(next);
         } finally {
-            readLock.unlock();
+            writeLock.unlock();
+        }
+
+        boolean moved = false;
+        try {
+            //copy without the lock; if a writer changes the file now the version check below fails
+            byte[] data = new byte[oldBlocks.length * BLOCK_SIZE];
+            readBlocks(oldBlocks, data, data.length);
+            //readers of snapshots older than the reservation see the run's blocks change and retry
+            writeBlocks(null, newBlocks, data, data.length);
+
+            lockWriter();
+            try {
+                MetadataSnapshot snap = current.get();
+                int idx = findFileIndex(snap, parts);
+                if (idx != -1 && snap.inodes.getVersion(idx) == version) {
+                    MetadataSnapshot next = snap.copy();
+                    int i = 0;
+                    for (short fn = next.inodes.getFirstBlock(idx); fn >= 0; ) {
+                        short blk = next.fnodes.getBlockIndex(fn);
+                        if (isValidBlock(blk)) {
+                            next.writableFNodes().setBlockIndex(fn, newBlocks[i++]);
+                            next.addBlockRef(blk, -1);
+                        }
+                        short n = next.fnodes.getNextBlock(fn);
+                        fn = n == FNodeTable.NO_NEXT ? -1 : n;
+                    }
+                    stampBlocks(next, newBlocks);
+                    //same data, same version: cached replies and watchers are not affected
+                    current.set(next);
+                    moved = true;
+                }
+            } finally {
+                writeLock.unlock();
+            }
+        } finally {
+            if (!moved) {
+                releaseReservation(newBlocks);
+            }
+        }
+        return moved;
+    }
+
+    /**
+     * Share of block-to-block steps inside files that are not to the next block
+     * (0 = every file is one contiguous run, 1 = no two blocks of a file are adjacent).
+     */
+    public double fragmentation() {
+        MetadataSnapshot snap = current.get();
+        int steps = 0;
+        int breaks = 0;
+        for (int i = 0; i < snap.inodes.capacity(); i++) {
+            if (!snap.inodes.isUsed(i)) {
+                continue;
+            }
+            short[] blocks = dataBlocks(snap, i);
+            if (blocks.length > 1) {
+                steps += blocks.length - 1;
+                breaks += runsOf(blocks) - 1;
+            }
+        }
+        return steps == 0 ? 0 : (double) breaks / steps;
+    }
+
+    // number of contiguous runs the file's data blocks form (0 for a file without data)
+    public int fragments(String fileName) throws Exception {
+        MetadataSnapshot snap = current.get();
+        int idx = findFileIndex(snap, parsePath(fileName));
+        if (idx == -1) {
+            throw new Exception("File not found");
+        }
+        return runsOf(dataBlocks(snap, idx));
+    }
+
+    public void addListener(MutationListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(MutationListener listener) {
+        listeners.remove(listener);
+    }
+
+    // runs the action while no writer can change the filesystem (e.g. to take a consistent copy)
+    public <T> T readConsistent(Callable<T> action) throws Exception {
+        lockWriter();
+        try {
+            return action.call();
+        } finally {
+            writeLock.unlock();
         }
     }
 
     //Helper section for the methods
 
-    private void ensureValidName(String name) throws Exception {
-        //check if file is empty or not
-        if (name == null || name.isEmpty()) {
-            throw new Exception("Invalid filename");
+    //null if one of the file's blocks was rewritten after snap was published (or while reading it)
+    private FileContents readFrom(MetadataSnapshot snap, String[] parts) throws Exception {
+        //find the inode for the file
+        int idx = findFileIndex(snap, parts);
+        if (idx == -1) {
+            throw new Exception("File not found");
+        }
+        //determine the size of the file
+        int size = snap.inodes.getSize(idx);
+        long version = snap.inodes.getVersion(idx);
+        if (snap.pending[idx] != null) {
+            return new FileContents(snap.pending[idx].clone(), version);
+        }
+        byte[] out = new byte[size];
+        if (size == 0) {
+            return new FileContents(out, version);
+        }
+
+        //traverse the linked list to collect the blocks in order;
+        //holes and the range past the end of the chain stay zero
+        int neededBlocks = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+        short[] blocks = new short[neededBlocks];
+        Arrays.fill(blocks, FNodeTable.HOLE);
+        short fnodeIndex = snap.inodes.getFirstBlock(idx);
+        int count = 0;
+        while (fnodeIndex >= 0 && count < neededBlocks) {
+            short blk = snap.fnodes.getBlockIndex(fnodeIndex);
+            if (blk != FNodeTable.HOLE && !isValidBlock(blk)) {
+                throw new Exception("data missing");
+            }
+            blocks[count++] = blk;
+
+            short next = snap.fnodes.getNextBlock(fnodeIndex);
+            if (next == FNodeTable.NO_NEXT) {
+                break;
+            }
+            fnodeIndex = next;
         }
-        if (name.length() > 11) {
-            throw new Exception("Filename is too long");
+
+        //then fetch them, one request per device in parallel
+        if (!unchanged(snap, blocks)) {
+            return null;
+        }
+        readBlocks(blocks, out, size);
+        return unchanged(snap, blocks) ? new FileContents(out, version) : null;
+    }
+
+    //buffered files must always fit when flushed, so their future fnodes and blocks are counted as used
+    private void reserveSpace(MetadataSnapshot snap, int idx, byte[] data) throws Exception {
+        int[] need = spaceFor(data);
+        ensureSpace(snap, idx, need[0], need[1]);
+    }
+
+    /**
+     * Every allocation checks here first: free fnodes and blocks minus what the buffered
+     * files (other than inode {@code except}, -1 for none) will take when flushed. Whatever
+     * is picked afterwards can then never be space a buffered file was promised.
+     */
+    private void ensureSpace(MetadataSnapshot snap, int except, int fnodes, int blocks) throws Exception {
+        int[] free = available(snap, except);
+        if (fnodes > free[0] || blocks > free[1]) {
+            throw new Exception("no free space");
         }
     }
 
-    private int findFileIndex(String name) {
+    // {fnodes, blocks} that are free and not reserved by a buffered file other than except
+    private int[] available(MetadataSnapshot snap, int except) {
+        int freeFNodes = 0;
+        int freeBlocks = 0;
+        for (int i = 0; i < MAXBLOCKS; i++) {
+            if (snap.fnodes.isFree(i)) {
+                freeFNodes++;
+            }
+            if (snap.blockRefs[i] == 0) {
+                freeBlocks++;
+            }
+        }
         for (int i = 0; i < MAXFILES; i++) {
-            if (inodeTable[i] != null && inodeTable[i].getFilename().equals(name)) {
-                return i;
+            if (i != except && snap.pending[i] != null) {
+                int[] need = spaceFor(snap.pending[i]);
+                freeFNodes -= need[0];
+                freeBlocks -= need[1];
             }
         }
-        return -1;
+        return new int[]{freeFNodes, freeBlocks};
     }
 
-    private int findFreeInode() {
-        for (int i = 0; i < MAXFILES; i++) {
-            if (inodeTable[i] == null) {
-                return i;
+    // {fnodes, data blocks} the contents will take once flushed
+    private static int[] spaceFor(byte[] data) {
+        int fnodes = 0;
+        int blocks = 0;
+        for (int i = 0; i * BLOCK_SIZE < data.length; i++) {
+            int off = i * BLOCK_SIZE;
+            if (!isZero(data, off, Math.min(BLOCK_SIZE, data.length - off))) {
+                fnodes = i + 1;
+                blocks++;
             }
         }
-        return -1;
+        return new int[]{fnodes, blocks};
+    }
+
+    //data blocks of the inode in chain order, holes left out
+    private short[] dataBlocks(MetadataSnapshot snap, int idx) {
+        short[] blocks = new short[MAXBLOCKS];
+        int count = 0;
+        for (short fn = snap.inodes.getFirstBlock(idx); fn >= 0 && count < MAXBLOCKS; ) {
+            short blk = snap.fnodes.getBlockIndex(fn);
+            if (isValidBlock(blk)) {
+                blocks[count++] = blk;
+            }
+            short n = snap.fnodes.getNextBlock(fn);
+            fn = n == FNodeTable.NO_NEXT ? -1 : n;
+        }
+        return Arrays.copyOf(blocks, count);
+    }
+
+    private static int runsOf(short[] blocks) {
+        int runs = blocks.length == 0 ? 0 : 1;
+        for (int i = 1; i < blocks.length; i++) {
+            if (blocks[i] != blocks[i - 1] + 1) {
+                runs++;
+            }
+        }
+        return runs;
     }
 
-    private int findFreeBlock() {
+    //first-fit run of count free blocks, -1 if there is none
+    private int findFreeRun(MetadataSnapshot snap, int count) {
+        int run = 0;
         for (int i = 0; i < MAXBLOCKS; i++) {
-            if (freeBlockList[i]) {
+            run = snap.blockRefs[i] == 0 ? run + 1 : 0;
+            if (run == count) {
+                return i - count + 1;
+            }
+        }
+        return -1;
+    }
+
+    private void releaseReservation(short[] blocks) {
+        lockWriter();
+        try {
+            MetadataSnapshot next = current.get().copy();
+            for (short b : blocks) {
+                next.setBlockRef(b, 0);
+            }
+            current.set(next);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    //every block of the list still holds what snap says (no write since, none running)
+    private boolean unchanged(MetadataSnapshot snap, short[] blocks) {
+        for (short b : blocks) {
+            if (isValidBlock(b) && blockSeq.get(b) != snap.blockSeqs[b]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void beginBlockUpdate(short[] blocks) {
+        for (short b : blocks) {
+            if (isValidBlock(b)) {
+                blockSeq.incrementAndGet(b);
+            }
+        }
+    }
+
+    //next (when given) is the version that will reference the new contents
+    private void endBlockUpdate(MetadataSnapshot next, short[] blocks) {
+        for (short b : blocks) {
+            if (isValidBlock(b)) {
+                blockSeq.incrementAndGet(b);
+            }
+        }
+        if (next != null) {
+            stampBlocks(next, blocks);
+        }
+    }
+
+    private void stampBlocks(MetadataSnapshot next, short[] blocks) {
+        for (short b : blocks) {
+            if (isValidBlock(b)) {
+                next.setBlockSeq(b, blockSeq.get(b));
+            }
+        }
+    }
+
+    // "a/b/c.txt" (a leading '/' is allowed) -> {"a", "b", "c.txt"}
+    private String[] parsePath(String path) throws Exception {
+        //check if file is empty or not
+        if (path == null || path.isEmpty()) {
+            throw new Exception("Invalid filename");
+        }
+        if (path.length() > MAX_PATH) {
+            throw new Exception("Path is too long (max " + MAX_PATH + " characters)");
+        }
+        String[] parts = (path.startsWith("/") ? path.substring(1) : path).split("/", -1);
+        for (String part : parts) {
+            if (part.isEmpty() || part.equals(".") || part.equals("..")) {
+                throw new Exception("Invalid filename");
+            }
+            if (part.length() > MAX_NAME) {
+                throw new Exception("Filename is too long");
+            }
+        }
+        return parts;
+    }
+
+    //walks every directory but the last component, one binary search per level
+    private int resolveParent(MetadataSnapshot snap, String[] parts) {
+        int id = 0;
+        for (int i = 0; i < parts.length - 1; i++) {
+            Directory dir = snap.directories[id];
+            int pos = dir.find(parts[i]);
+            if (pos < 0 || !dir.isDirAt(pos)) {
+                return -1;
+            }
+            id = dir.refAt(pos);
+        }
+        return id;
+    }
+
+    private int resolveDirectory(MetadataSnapshot snap, String dirPath) throws Exception {
+        if (dirPath == null || dirPath.isEmpty() || dirPath.equals("/")) {
+            return 0;
+        }
+        String[] parts = parsePath(dirPath);
+        int parent = resolveParent(snap, parts);
+        if (parent == -1) {
+            return -1;
+        }
+        Directory dir = snap.directories[parent];
+        int pos = dir.find(parts[parts.length - 1]);
+        return pos >= 0 && dir.isDirAt(pos) ? dir.refAt(pos) : -1;
+    }
+
+    private int findFileIndex(MetadataSnapshot snap, String[] parts) {
+        int parent = resolveParent(snap, parts);
+        if (parent == -1) {
+            return -1;
+        }
+        Directory dir = snap.directories[parent];
+        int pos = dir.find(parts[parts.length - 1]);
+        return pos >= 0 && !dir.isDirAt(pos) ? dir.refAt(pos) : -1;
+    }
+
+    private static FileInfo toInfo(String path, int inode, InodeTable inodes) {
+        return new FileInfo(path, inodes.getSize(inode), inodes.getModified(inode), inode, inodes.getVersion(inode));
+    }
+
+    //depth-first, in name order; collects either file paths or directory paths
+    private void collect(MetadataSnapshot snap, int dirId, String prefix, List<String> out, boolean directories) {
+        Directory dir = snap.directories[dirId];
+        for (int i = 0; i < dir.size(); i++) {
+            String path = prefix + dir.nameAt(i);
+            if (dir.isDirAt(i)) {
+                if (directories) {
+                    out.add(path);
+                }
+                collect(snap, dir.refAt(i), path + "/", out, directories);
+            } else if (!directories) {
+                out.add(path);
+            }
+        }
+    }
+
+    //fills one page, returns true when a match was left over for the next page
+    private boolean walk(MetadataSnapshot snap, int dirId, String path, String prefix, String[] after,
+                         int depth, int limit, List<FileInfo> out) {
+        Directory dir = snap.directories[dirId];
+        int start = 0;
+        int end = dir.size();
+
+        //prefix: only the entries of this directory that can still match
+        String rest = null;
+        if (prefix.length() > path.length()) {
+            rest = prefix.substring(path.length());
+            int slash = rest.indexOf('/');
+            if (slash >= 0) {
+                //the prefix goes below a single subdirectory
+                int pos = dir.find(rest.substring(0, slash));
+                if (pos < 0 || !dir.isDirAt(pos)) {
+                    return false;
+                }
+                start = pos;
+                end = pos + 1;
+                rest = null;
+            } else {
+                int pos = dir.find(rest);
+                start = pos >= 0 ? pos : -pos - 1;
+            }
+        }
+
+        //cursor: skip everything before it
+        boolean cursorHere = after != null && depth < after.length;
+        if (cursorHere) {
+            int pos = dir.find(after[depth]);
+            start = Math.max(start, pos >= 0 ? pos : -pos - 1);
+        }
+
+        for (int i = start; i < end; i++) {
+            String name = dir.nameAt(i);
+            if (rest != null && !dir.nameStartsWith(i, rest)) {
+                break; //sorted, the matches are contiguous
+            }
+            boolean onCursor = cursorHere && name.equals(after[depth]);
+            String full = path + name;
+            if (dir.isDirAt(i)) {
+                if (walk(snap, dir.refAt(i), full + "/", prefix, onCursor ? after : null, depth + 1, limit, out)) {
+                    return true;
+                }
+            } else if (!onCursor) {
+                if (out.size() == limit) {
+                    return true;
+                }
+                out.add(toInfo(full, dir.refAt(i), snap.inodes));
+            }
+        }
+        return false;
+    }
+
+    private int findFreeDirectory(MetadataSnapshot snap) {
+        for (int i = 1; i < MAXDIRS; i++) {
+            if (snap.directories[i] == null) {
                 return i;
             }
         }
         return -1;
     }
 
-    private int findFreeFNode() {
+    private int findFreeInode(MetadataSnapshot snap) {
+        return snap.inodes.findFree();
+    }
+
+    private int findFreeBlock(MetadataSnapshot snap) {
         for (int i = 0; i < MAXBLOCKS; i++) {
-            if (fnodes[i].isFree()) {
+            if (snap.blockRefs[i] == 0) {
                 return i;
             }
         }
         return -1;
     }
 
+    private int findFreeFNode(MetadataSnapshot snap) {
+        return snap.fnodes.findFree();
+    }
+
     private boolean isValidBlock(short b) {
         return b >= 0 && b < MAXBLOCKS;
     }
 
-    private long offsetOf(short blockIndex) {
-        return (long) blockIndex * BLOCK_SIZE;
+    //contended acquisitions show up as LockWait events in a flight recording
+    private void lockWriter() {
+        if (writeLock.tryLock()) {
+            return;
+        }
+        LockWaitEvent event = new LockWaitEvent();
+        event.queued = writeLock.getQueueLength();
+        event.begin();
+        writeLock.lock();
+        event.commit();
     }
 
-    private void writeBlock(short blockIndex, byte[] src, int off, int len) throws Exception {
+    private void writeBlocks(MetadataSnapshot next, short[] blocks, byte[] src, int size) throws Exception {
+        BlockIoEvent event = new BlockIoEvent();
+        event.begin();
+        beginBlockUpdate(blocks);
         try {
-            disk.seek(offsetOf(blockIndex));
-            disk.write(src, off, len);
+            store.writeBlocks(blocks, src, size);
         } catch (IOException e) {
             throw new Exception("Disk write failed");
+        } finally {
+            endBlockUpdate(next, blocks);
         }
+        commit(event, "write", blocks.length, size);
     }
 
-    private void readBlock(short blockIndex, byte[] dst, int off, int len) throws Exception {
+    private void readBlocks(short[] blocks, byte[] dst, int size) throws Exception {
+        BlockIoEvent event = new BlockIoEvent();
+        event.begin();
         try {
-            disk.seek(offsetOf(blockIndex));
-            int n = disk.read(dst, off, len);
-            if (n < len) {
-                int start = off + Math.max(n, 0);
-                for (int i = start; i < off + len; i++) {
-                    dst[i] = 0;
-                }
-            }
+            store.readBlocks(blocks, dst, size);
+        } catch (IOException e) {
+            throw new Exception("Disk read failed");
+        }
+        commit(event, "read", blocks.length, size);
+    }
+
+    private static void commit(BlockIoEvent event, String operation, int blocks, int bytes) {
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.blocks = blocks;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    //copies the first len bytes of the fnode's block into a fresh block (zero tail) and repoints the fnode
+    private void unshareBlock(MetadataSnapshot snap, short fnode, int len) throws Exception {
+        short old = snap.fnodes.getBlockIndex(fnode);
+        ensureSpace(snap, -1, 0, 1);
+        int blk = findFreeBlock(snap);
+        if (blk == -1) {
+            throw new Exception("no free space");
+        }
+        byte[] data = new byte[len];
+        BlockIoEvent event = new BlockIoEvent();
+        event.begin();
+        try {
+            store.read(old, data, 0, len);
         } catch (IOException e) {
             throw new Exception("Disk read failed");
         }
+        commit(event, "read", 1, len);
+        writeBlocks(snap, new short[]{(short) blk}, data, len);
+        snap.addBlockRef(old, -1);
+        snap.setBlockRef(blk, 1);
+        snap.writableFNodes().setBlockIndex(fnode, (short) blk);
     }
 
-    private void zeroBlock(short blockIndex) throws Exception {
-        zeroBlockRange(blockIndex, 0, BLOCK_SIZE);
+    private void zeroBlock(MetadataSnapshot next, short blockIndex) throws Exception {
+        zeroRange(next, blockIndex, 0, BLOCK_SIZE);
     }
 
-    private void zeroBlockRange(short blockIndex, int start, int count) throws Exception {
+    private void zeroRange(MetadataSnapshot next, short blockIndex, int start, int count) throws Exception {
+        short[] block = {blockIndex};
+        BlockIoEvent event = new BlockIoEvent();
+        event.begin();
+        beginBlockUpdate(block);
         try {
-            disk.seek(offsetOf(blockIndex) + start);
-            byte[] zeros = new byte[count];
-            disk.write(zeros);
+            store.zero(blockIndex, start, count);
         } catch (IOException e) {
             throw new Exception("zero-fill failed");
+        } finally {
+            endBlockUpdate(next, block);
         }
+        commit(event, "zero", 1, count);
     }
 
-    private void freeChain(short firstFNode, boolean zeroData) throws Exception {
+    private static boolean isZero(byte[] data, int off, int len) {
+        for (int i = off; i < off + len; i++) {
+            if (data[i] != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void freeChain(MetadataSnapshot snap, short firstFNode, boolean zeroData) throws Exception {
         short current = firstFNode;
 
         //follows the linked list of fnode until the last node
+        FNodeTable fnodes = snap.writableFNodes();
         while (current >= 0 && current < MAXBLOCKS) {
-            FNode node = fnodes[current];
-            short blk = node.getBlockIndex();
-            short next = node.getNextBlock();
+            short blk = fnodes.getBlockIndex(current);
+            short next = fnodes.getNextBlock(current);
 
-            if (isValidBlock(blk)) {
-                if (zeroData) {
-                    zeroBlock(blk);
-                }
-                freeBlockList[blk] = true;
+            //a block shared with a copy stays until its last fnode is gone
+            if (isValidBlock(blk) && snap.addBlockRef(blk, -1) == 0 && zeroData) {
+                zeroBlock(snap, blk);
             }
 
-            node.reset();
+            fnodes.reset(current);
 
-            if (next == FNode.NO_NEXT) {
+            if (next == FNodeTable.NO_NEXT) {
                 break;
             }
             current = next;
         }
     }
 }
-
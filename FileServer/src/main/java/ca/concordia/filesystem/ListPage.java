@@ -0,0 +1,24 @@
+package ca.concordia.filesystem;
+
+/**
+ * One page of a listing. {@link #getNextCursor()} is the cursor for the following page,
+ * or null when this was the last one.
+ */
+public class ListPage {
+
+    private final FileInfo[] entries;
+    private final String nextCursor;
+
+    public ListPage(FileInfo[] entries, String nextCursor) {
+        this.entries = entries;
+        this.nextCursor = nextCursor;
+    }
+
+    public FileInfo[] getEntries() {
+        return entries;
+    }
+
+    public String getNextCursor() {
+        return nextCursor;
+    }
+}
@@ -0,0 +1,22 @@
+package ca.concordia.filesystem;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for time a writer spent blocked on the filesystem writer lock. Only
+ * committed when the lock was contended; the stack trace shows which operation waited.
+ */
+@Name("ca.concordia.LockWait")
+@Label("Writer Lock Wait")
+@Category({"File Server", "Filesystem"})
+@Description("Time spent waiting for the filesystem writer lock")
+final class LockWaitEvent extends Event {
+
+    @Label("Queued Threads")
+    @Description("Threads already waiting when this one arrived")
+    int queued;
+}
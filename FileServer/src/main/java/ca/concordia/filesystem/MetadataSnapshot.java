@@ -0,0 +1,120 @@
+package ca.concordia.filesystem;
+
+import ca.concordia.filesystem.datastructures.Directory;
+import ca.concordia.filesystem.datastructures.FNodeTable;
+import ca.concordia.filesystem.datastructures.InodeTable;
+
+/**
+ * One version of the filesystem metadata (inode table, block reference counts, fnodes,
+ * directory tree and the write-back buffers of files that have no blocks yet).
+ * Once published by {@link FileSystemManager} a snapshot is never modified again:
+ * writers call {@link #copy()}, change the copy and publish it in place of the old one.
+ *
+ * The copy shares every table with the version it came from. The first change to a table
+ * copies that table, and only that one, so creating a directory never copies the inode
+ * table and a write never copies the directory table. Directories themselves are
+ * immutable, so a copied directory table still shares every directory except the one
+ * being replaced. Readers use the fields; writers change a copy only through the methods
+ * below, never through the fields.
+ */
+final class MetadataSnapshot {
+
+    InodeTable inodes;
+    //how many fnodes point at each block, 0 = free; COPY makes files share blocks
+    short[] blockRefs;
+    FNodeTable fnodes;
+    //directory id -> entries, 0 is the root
+    Directory[] directories;
+    //inode -> buffered contents not flushed yet (delayed allocation), null when on disk;
+    //the arrays are never modified once stored, so copies share them
+    byte[][] pending;
+    //block -> write sequence number of the contents this version refers to (see FileSystemManager.blockSeq)
+    long[] blockSeqs;
+
+    //tables this copy owns already (changed since copy()), the others are still shared
+    private boolean ownInodes, ownBlockRefs, ownFNodes, ownDirectories, ownPending, ownBlockSeqs;
+
+    MetadataSnapshot(int maxFiles, int maxBlocks, int maxDirs) {
+        inodes = new InodeTable(maxFiles);
+        fnodes = new FNodeTable(maxBlocks);
+        directories = new Directory[maxDirs];
+        directories[0] = Directory.EMPTY;
+        pending = new byte[maxFiles][];
+        blockRefs = new short[maxBlocks];
+        blockSeqs = new long[maxBlocks];
+    }
+
+    private MetadataSnapshot(MetadataSnapshot from) {
+        inodes = from.inodes;
+        blockRefs = from.blockRefs;
+        fnodes = from.fnodes;
+        directories = from.directories;
+        pending = from.pending;
+        blockSeqs = from.blockSeqs;
+    }
+
+    //shares every table, see writableInodes() and friends
+    MetadataSnapshot copy() {
+        return new MetadataSnapshot(this);
+    }
+
+    InodeTable writableInodes() {
+        if (!ownInodes) {
+            inodes = inodes.copy();
+            ownInodes = true;
+        }
+        return inodes;
+    }
+
+    FNodeTable writableFNodes() {
+        if (!ownFNodes) {
+            fnodes = fnodes.copy();
+            ownFNodes = true;
+        }
+        return fnodes;
+    }
+
+    void setDirectory(int id, Directory dir) {
+        if (!ownDirectories) {
+            directories = directories.clone();
+            ownDirectories = true;
+        }
+        directories[id] = dir;
+    }
+
+    void setPending(int idx, byte[] data) {
+        if (pending[idx] == data) {
+            return;
+        }
+        if (!ownPending) {
+            pending = pending.clone();
+            ownPending = true;
+        }
+        pending[idx] = data;
+    }
+
+    void setBlockRef(int block, int refs) {
+        if (!ownBlockRefs) {
+            blockRefs = blockRefs.clone();
+            ownBlockRefs = true;
+        }
+        blockRefs[block] = (short) refs;
+    }
+
+    // returns the new count
+    int addBlockRef(int block, int delta) {
+        setBlockRef(block, blockRefs[block] + delta);
+        return blockRefs[block];
+    }
+
+    void setBlockSeq(int block, long seq) {
+        if (blockSeqs[block] == seq) {
+            return;
+        }
+        if (!ownBlockSeqs) {
+            blockSeqs = blockSeqs.clone();
+            ownBlockSeqs = true;
+        }
+        blockSeqs[block] = seq;
+    }
+}
@@ -0,0 +1,26 @@
+package ca.concordia.filesystem;
+
+/**
+ * Change feed of a {@link FileSystemManager}. Callbacks run on the writer thread while
+ * the writer lock is still held, right after the new version was published, so
+ * listeners see mutations in commit order. Keep them short and never call back into
+ * a mutating method from here. Paths are passed in canonical form ({@code a/b/c.txt}).
+ */
+public interface MutationListener {
+
+    void onCreate(String fileName);
+
+    void onWrite(String fileName, byte[] contents);
+
+    void onTruncate(String fileName, int size);
+
+    void onDelete(String fileName);
+
+    void onRename(String from, String to);
+
+    void onCopy(String from, String to);
+
+    void onMkdir(String path);
+
+    void onRmdir(String path);
+}
@@ -0,0 +1,222 @@
+package ca.concordia.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Block storage spread over one or more backing files (one per disk).
+ * Block b lives on device b % n at offset (b / n) * blockSize, so consecutive
+ * blocks of a file land on different devices. Every device has its own I/O queue
+ * (a single thread), and multi-block reads and writes are split per device and
+ * run in parallel. Negative entries in a block list are holes: nothing is read or
+ * written for them. Blocks that sit back to back on a device are written with a
+ * single positional write.
+ */
+final class StripedBlockStore {
+
+    private final int blockSize;
+    private final RandomAccessFile[] files;
+    private final FileChannel[] devices;
+    //one queue per device, null when there is only one device (I/O runs inline)
+    private final ExecutorService[] queues;
+
+    StripedBlockStore(String[] filenames, int totalBlocks, int blockSize) throws IOException {
+        if (filenames == null || filenames.length == 0) {
+            throw new IllegalArgumentException("At least one backing file is required");
+        }
+        this.blockSize = blockSize;
+        int n = filenames.length;
+        files = new RandomAccessFile[n];
+        devices = new FileChannel[n];
+        queues = n > 1 ? new ExecutorService[n] : null;
+
+        //each device holds every n-th block
+        long deviceSize = (long) ((totalBlocks + n - 1) / n) * blockSize;
+        for (int i = 0; i < n; i++) {
+            File f = new File(filenames[i]);
+            files[i] = new RandomAccessFile(f, "rw");
+            devices[i] = files[i].getChannel();
+            //check if disk file is correct size
+            if (files[i].length() < deviceSize) {
+                files[i].setLength(deviceSize);
+            }
+            if (queues != null) {
+                final String name = "disk-io-" + i;
+                queues[i] = Executors.newSingleThreadExecutor(r -> {
+                    Thread t = new Thread(r, name);
+                    t.setDaemon(true);
+                    return t;
+                });
+            }
+        }
+    }
+
+    void write(short block, byte[] src, int off, int len) throws IOException {
+        writeFully(devices[deviceOf(block)], ByteBuffer.wrap(src, off, len), positionOf(block));
+    }
+
+    void read(short block, byte[] dst, int off, int len) throws IOException {
+        readFully(devices[deviceOf(block)], dst, off, len, positionOf(block));
+    }
+
+    void zero(short block, int start, int count) throws IOException {
+        writeFully(devices[deviceOf(block)], ByteBuffer.allocate(count), positionOf(block) + start);
+    }
+
+    // blocks[i] holds bytes [i * blockSize, (i + 1) * blockSize) of dst, up to size
+    void readBlocks(short[] blocks, byte[] dst, int size) throws IOException {
+        forEachDevice(blocks, (device, chain) -> {
+            for (int k = 0; k < chain.length; k++) {
+                int i = chain[k];
+                int off = i * blockSize;
+                readFully(devices[device], dst, off, Math.min(blockSize, size - off), positionOf(blocks[i]));
+            }
+        });
+    }
+
+    //the tail of the last block is zero-filled so no stale bytes stay behind
+    void writeBlocks(short[] blocks, byte[] src, int size) throws IOException {
+        forEachDevice(blocks, (device, chain) -> {
+            int k = 0;
+            while (k < chain.length) {
+                //blocks n apart are neighbours on the device
+                int end = k + 1;
+                while (end < chain.length && blocks[chain[end]] == blocks[chain[end - 1]] + devices.length) {
+                    end++;
+                }
+                long pos = positionOf(blocks[chain[k]]);
+                if (end - k == 1) {
+                    int off = chain[k] * blockSize;
+                    int len = Math.min(blockSize, size - off);
+                    writeFully(devices[device], ByteBuffer.wrap(src, off, len), pos);
+                    if (len < blockSize) {
+                        writeFully(devices[device], ByteBuffer.allocate(blockSize - len), pos + len);
+                    }
+                } else {
+                    //FileChannel has no positional gathering write, so the run is staged in one buffer
+                    byte[] run = new byte[(end - k) * blockSize];
+                    for (int j = k; j < end; j++) {
+                        int off = chain[j] * blockSize;
+                        System.arraycopy(src, off, run, (j - k) * blockSize, Math.min(blockSize, size - off));
+                    }
+                    writeFully(devices[device], ByteBuffer.wrap(run), pos);
+                }
+                k = end;
+            }
+        });
+    }
+
+    void close() throws IOException {
+        if (queues != null) {
+            for (ExecutorService q : queues) {
+                q.shutdown();
+            }
+        }
+        for (RandomAccessFile f : files) {
+            f.close();
+        }
+    }
+
+    private int deviceOf(short block) {
+        return block % devices.length;
+    }
+
+    private long positionOf(short block) {
+        return (long) (block / devices.length) * blockSize;
+    }
+
+    // chain holds, in file order, the indices into the block list that live on device
+    private interface DeviceTask {
+        void run(int device, int[] chain) throws IOException;
+    }
+
+    private int[] onDevice(short[] blocks, int device, int[] chain) {
+        int count = 0;
+        for (int i = 0; i < blocks.length; i++) {
+            if (blocks[i] >= 0 && deviceOf(blocks[i]) == device) {
+                chain[count++] = i;
+            }
+        }
+        return Arrays.copyOf(chain, count);
+    }
+
+    //fans the blocks out to their device queues and waits for all of them
+    private void forEachDevice(short[] blocks, DeviceTask task) throws IOException {
+        int[] scratch = new int[blocks.length];
+        if (queues == null) {
+            int[] chain = onDevice(blocks, 0, scratch);
+            if (chain.length > 0) {
+                task.run(0, chain);
+            }
+            return;
+        }
+
+        List<Future<?>> pending = new ArrayList<>(devices.length);
+        for (int d = 0; d < devices.length; d++) {
+            final int device = d;
+            final int[] chain = onDevice(blocks, device, scratch);
+            if (chain.length == 0) {
+                continue;
+            }
+            if (chain.length == blocks.length) {
+                //everything on one device, no point handing it to another thread
+                task.run(device, chain);
+                return;
+            }
+            pending.add(queues[device].submit(() -> {
+                task.run(device, chain);
+                return null;
+            }));
+        }
+
+        IOException failure = null;
+        for (Future<?> f : pending) {
+            try {
+                f.get();
+            } catch (ExecutionException e) {
+                if (failure == null) {
+                    failure = e.getCause() instanceof IOException
+                            ? (IOException) e.getCause()
+                            : new IOException(e.getCause());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted during block I/O", e);
+            }
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException {
+        while (buf.hasRemaining()) {
+            pos += ch.write(buf, pos);
+        }
+    }
+
+    //past the end of the device file reads as zeros
+    private static void readFully(FileChannel ch, byte[] dst, int off, int len, long pos) throws IOException {
+        ByteBuffer buf = ByteBuffer.wrap(dst, off, len);
+        while (buf.hasRemaining()) {
+            int n = ch.read(buf, pos);
+            if (n < 0) {
+                break;
+            }
+            pos += n;
+        }
+        for (int i = buf.position(); i < off + len; i++) {
+            dst[i] = 0;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package ca.concordia.filesystem.datastructures;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Entries of one directory, kept sorted by name so lookups are a binary search.
+ * Names are packed back to back as UTF-8 in one byte arena ({@code offsets[i]} to
+ * {@code offsets[i + 1]}), next to parallel kind/ref arrays, so a directory is four
+ * arrays no matter how many entries it holds. Order is unsigned byte order of the
+ * UTF-8 names (code point order).
+ *
+ * Instances are immutable: {@link #with} and {@link #without} return a new directory,
+ * which lets metadata snapshots share every directory a writer did not touch.
+ *
+ * An entry is either a file (ref = inode index) or a subdirectory (ref = directory id).
+ */
+public final class Directory {
+
+    public static final byte FILE = 0;
+    public static final byte DIR = 1;
+
+    public static final Directory EMPTY = new Directory(new byte[0], new int[]{0}, new byte[0], new int[0]);
+
+    private final byte[] arena;
+    private final int[] offsets;
+    private final byte[] kinds;
+    private final int[] refs;
+
+    private Directory(byte[] arena, int[] offsets, byte[] kinds, int[] refs) {
+        this.arena = arena;
+        this.offsets = offsets;
+        this.kinds = kinds;
+        this.refs = refs;
+    }
+
+    public int size() {
+        return kinds.length;
+    }
+
+    // position of name, or -(insertion point) - 1 when absent
+    public int find(String name) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        return find(key, 0, key.length);
+    }
+
+    // same, for a name already encoded as UTF-8 (e.g. straight from a request buffer)
+    public int find(byte[] key, int off, int len) {
+        int lo = 0;
+        int hi = kinds.length - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int c = Arrays.compareUnsigned(arena, offsets[mid], offsets[mid + 1], key, off, off + len);
+            if (c < 0) {
+                lo = mid + 1;
+            } else if (c > 0) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
+    }
+
+    public String nameAt(int i) {
+        return new String(arena, offsets[i], offsets[i + 1] - offsets[i], StandardCharsets.UTF_8);
+    }
+
+    public boolean nameStartsWith(int i, String prefix) {
+        byte[] p = prefix.getBytes(StandardCharsets.UTF_8);
+        int len = offsets[i + 1] - offsets[i];
+        return len >= p.length && Arrays.equals(arena, offsets[i], offsets[i] + p.length, p, 0, p.length);
+    }
+
+    public boolean isDirAt(int i) {
+        return kinds[i] == DIR;
+    }
+
+    public int refAt(int i) {
+        return refs[i];
+    }
+
+    public Directory with(String name, byte kind, int ref) {
+        byte[] key = name.getBytes(StandardCharsets.UTF_8);
+        int pos = find(key, 0, key.length);
+        if (pos >= 0) {
+            throw new IllegalArgumentException("Entry already exists: " + name);
+        }
+        int at = -pos - 1;
+        int n = kinds.length;
+        int cut = offsets[at];
+
+        byte[] na = new byte[arena.length + key.length];
+        System.arraycopy(arena, 0, na, 0, cut);
+        System.arraycopy(key, 0, na, cut, key.length);
+        System.arraycopy(arena, cut, na, cut + key.length, arena.length - cut);
+
+        int[] no = new int[n + 2];
+        System.arraycopy(offsets, 0, no, 0, at + 1);
+        for (int i = at + 1; i <= n + 1; i++) {
+            no[i] = offsets[i - 1] + key.length;
+        }
+
+        byte[] nk = new byte[n + 1];
+        int[] nr = new int[n + 1];
+        System.arraycopy(kinds, 0, nk, 0, at);
+        System.arraycopy(refs, 0, nr, 0, at);
+        nk[at] = kind;
+        nr[at] = ref;
+        System.arraycopy(kinds, at, nk, at + 1, n - at);
+        System.arraycopy(refs, at, nr, at + 1, n - at);
+        return new Directory(na, no, nk, nr);
+    }
+
+    public Directory without(String name) {
+        int at = find(name);
+        if (at < 0) {
+            return this;
+        }
+        int n = kinds.length;
+        int start = offsets[at];
+        int len = offsets[at + 1] - start;
+
+        byte[] na = new byte[arena.length - len];
+        System.arraycopy(arena, 0, na, 0, start);
+        System.arraycopy(arena, start + len, na, start, arena.length - start - len);
+
+        int[] no = new int[n];
+        System.arraycopy(offsets, 0, no, 0, at + 1);
+        for (int i = at + 1; i < n; i++) {
+            no[i] = offsets[i + 1] - len;
+        }
+
+        byte[] nk = new byte[n - 1];
+        int[] nr = new int[n - 1];
+        System.arraycopy(kinds, 0, nk, 0, at);
+        System.arraycopy(refs, 0, nr, 0, at);
+        System.arraycopy(kinds, at + 1, nk, at, n - at - 1);
+        System.arraycopy(refs, at + 1, nr, at, n - at - 1);
+        return new Directory(na, no, nk, nr);
+    }
+}
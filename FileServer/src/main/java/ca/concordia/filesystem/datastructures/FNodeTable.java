@@ -0,0 +1,71 @@
+package ca.concordia.filesystem.datastructures;
+
+/**
+ * All fnodes as two parallel short arrays: the block each fnode covers and the next
+ * fnode of the chain.
+ */
+public final class FNodeTable {
+    public static final short FREE = -1;
+    public static final short NO_NEXT = -1;
+    //block index of an fnode that covers a range without data (reads as zeros)
+    public static final short HOLE = -2;
+
+    private final short[] blockIndex;
+    private final short[] nextBlock;
+
+    public FNodeTable(int capacity) {
+        blockIndex = new short[capacity];
+        nextBlock = new short[capacity];
+        for (int i = 0; i < capacity; i++) {
+            blockIndex[i] = FREE;
+            nextBlock[i] = NO_NEXT;
+        }
+    }
+
+    private FNodeTable(FNodeTable other) {
+        blockIndex = other.blockIndex.clone();
+        nextBlock = other.nextBlock.clone();
+    }
+
+    public FNodeTable copy() {
+        return new FNodeTable(this);
+    }
+
+    public int capacity() {
+        return blockIndex.length;
+    }
+
+    public short getBlockIndex(int i) {
+        return blockIndex[i];
+    }
+
+    public void setBlockIndex(int i, short block) {
+        blockIndex[i] = block;
+    }
+
+    public short getNextBlock(int i) {
+        return nextBlock[i];
+    }
+
+    public void setNextBlock(int i, short next) {
+        nextBlock[i] = next;
+    }
+
+    public boolean isFree(int i) {
+        return blockIndex[i] == FREE;
+    }
+
+    public void reset(int i) {
+        blockIndex[i] = FREE;
+        nextBlock[i] = NO_NEXT;
+    }
+
+    public int findFree() {
+        for (int i = 0; i < blockIndex.length; i++) {
+            if (blockIndex[i] == FREE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,101 @@
+package ca.concordia.filesystem.datastructures;
+
+/**
+ * Inode table stored as parallel primitive arrays (struct of arrays) instead of one
+ * entry object per file: no per-file objects, no pointer chasing, and a copy
+ * of the whole table is a handful of array copies. Names are not stored here, they
+ * live in the parent {@link Directory}.
+ */
+public final class InodeTable {
+
+    private final boolean[] used;
+    private final int[] sizes;
+    private final short[] firstBlocks;
+    private final long[] modified;
+    private final long[] versions;
+
+    public InodeTable(int capacity) {
+        used = new boolean[capacity];
+        sizes = new int[capacity];
+        firstBlocks = new short[capacity];
+        modified = new long[capacity];
+        versions = new long[capacity];
+    }
+
+    private InodeTable(InodeTable other) {
+        used = other.used.clone();
+        sizes = other.sizes.clone();
+        firstBlocks = other.firstBlocks.clone();
+        modified = other.modified.clone();
+        versions = other.versions.clone();
+    }
+
+    public InodeTable copy() {
+        return new InodeTable(this);
+    }
+
+    public int capacity() {
+        return used.length;
+    }
+
+    public boolean isUsed(int i) {
+        return used[i];
+    }
+
+    // empty file, no blocks
+    public void allocate(int i, long now, long version) {
+        used[i] = true;
+        sizes[i] = 0;
+        firstBlocks[i] = -1;
+        modified[i] = now;
+        versions[i] = version;
+    }
+
+    public void free(int i) {
+        used[i] = false;
+        sizes[i] = 0;
+        firstBlocks[i] = -1;
+    }
+
+    public int getSize(int i) {
+        return sizes[i];
+    }
+
+    public void setSize(int i, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("Filesize cannot be negative.");
+        }
+        sizes[i] = size;
+    }
+
+    public short getFirstBlock(int i) {
+        return firstBlocks[i];
+    }
+
+    public void setFirstBlock(int i, short firstBlock) {
+        firstBlocks[i] = firstBlock;
+    }
+
+    public long getModified(int i) {
+        return modified[i];
+    }
+
+    public long getVersion(int i) {
+        return versions[i];
+    }
+
+    // stamp a change
+    public void touch(int i, long now, long version) {
+        modified[i] = now;
+        versions[i] = version;
+    }
+
+    public int findFree() {
+        for (int i = 0; i < used.length; i++) {
+            if (!used[i]) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,165 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Follows a {@link ReplicationPrimary}: connects, asks for everything after the last
+ * applied sequence number and applies the stream to the local filesystem. Reconnects
+ * after a second when the connection drops. The run id of the primary's log travels with
+ * the sequence number, so a restarted primary knows to send a snapshot.
+ */
+public class ReplicationFollower {
+
+    private static final long RETRY_MS = 1000;
+
+    private final FileSystemManager fsManager;
+    private final String primaryHost;
+    private final int primaryPort;
+    private volatile long appliedSeq = 0;
+    //run id of the log appliedSeq belongs to, "-" before anything was applied
+    private volatile String appliedRun = "-";
+
+    public ReplicationFollower(FileSystemManager fsManager, String primaryHost, int primaryPort) {
+        this.fsManager = fsManager;
+        this.primaryHost = primaryHost;
+        this.primaryPort = primaryPort;
+    }
+
+    public long getAppliedSeq() {
+        return appliedSeq;
+    }
+
+    public void start() {
+        Thread t = new Thread(this::run, "replication-follower");
+        t.setDaemon(true);
+        t.start();
+    }
+
+    private void run() {
+        while (true) {
+            try (
+                    Socket socket = new Socket(primaryHost, primaryPort);
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+                    PrintWriter writer = new PrintWriter(socket.getOutputStream(), true)
+            ) {
+                System.out.println("Following primary " + primaryHost + ":" + primaryPort + " from seq " + appliedSeq);
+                writer.println("FOLLOW " + appliedSeq + " " + appliedRun);
+
+                String run = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    if (line.startsWith("RUN ")) {
+                        run = line.substring(4);
+                    } else if (run == null) {
+                        throw new Exception("expected RUN <id>, got: " + line);
+                    } else if (line.startsWith("SNAPSHOT ")) {
+                        applySnapshot(line, reader, run);
+                    } else {
+                        apply(line, run);
+                    }
+                }
+            } catch (Exception e) {
+                System.out.println("Lost primary " + primaryHost + ":" + primaryPort + " (" + e.getMessage() + ")");
+            }
+
+            try {
+                Thread.sleep(RETRY_MS);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    // SNAPSHOT <seq> <count>, then count DIR/FILE lines; replaces the whole local namespace
+    private void applySnapshot(String header, BufferedReader reader, String run) throws Exception {
+        String[] parts = header.split(" ");
+        long seq = Long.parseLong(parts[1]);
+        int count = Integer.parseInt(parts[2]);
+
+        List<String> dirs = new ArrayList<>();
+        Map<String, byte[]> files = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            String line = reader.readLine();
+            if (line == null) {
+                throw new Exception("snapshot truncated");
+            }
+            String[] f = line.split(" ", 3);
+            if (f[0].equals("DIR")) {
+                dirs.add(f[1]);
+            } else {
+                files.put(f[1], f.length > 2 ? Base64.getDecoder().decode(f[2]) : new byte[0]);
+            }
+        }
+
+        //drop local files and directories first so their slots and blocks are free for the snapshot
+        for (String name : fsManager.listFiles()) {
+            if (!files.containsKey(name)) {
+                fsManager.deleteFile(name);
+            }
+        }
+        String[] localDirs = fsManager.listDirectories();
+        for (int i = localDirs.length - 1; i >= 0; i--) {
+            if (!dirs.contains(localDirs[i])) {
+                fsManager.deleteDirectory(localDirs[i]);
+            }
+        }
+        for (String dir : dirs) {
+            fsManager.createDirectory(dir);
+        }
+        for (Map.Entry<String, byte[]> f : files.entrySet()) {
+            fsManager.createFile(f.getKey());
+            fsManager.writeFile(f.getKey(), f.getValue());
+        }
+        appliedRun = run;
+        appliedSeq = seq;
+    }
+
+    private void apply(String line, String run) throws Exception {
+        String[] parts = line.split(" ", 4);
+        long seq = Long.parseLong(parts[0]);
+        if (seq <= appliedSeq) {
+            return;
+        }
+        switch (parts[1]) {
+            case ReplicationLog.CREATE:
+                fsManager.createFile(parts[2]);
+                break;
+            case ReplicationLog.WRITE:
+                byte[] data = parts.length > 3 ? Base64.getDecoder().decode(parts[3]) : new byte[0];
+                fsManager.writeFile(parts[2], data);
+                break;
+            case ReplicationLog.TRUNCATE:
+                fsManager.truncateFile(parts[2], Integer.parseInt(parts[3]));
+                break;
+            case ReplicationLog.DELETE:
+                fsManager.deleteFile(parts[2]);
+                break;
+            case ReplicationLog.RENAME:
+                fsManager.renameFile(parts[2], parts[3]);
+                break;
+            case ReplicationLog.COPY:
+                fsManager.copyFile(parts[2], parts[3]);
+                break;
+            case ReplicationLog.MKDIR:
+                fsManager.createDirectory(parts[2]);
+                break;
+            case ReplicationLog.RMDIR:
+                fsManager.deleteDirectory(parts[2]);
+                break;
+            default:
+                throw new Exception("unknown log entry: " + line);
+        }
+        appliedRun = run;
+        appliedSeq = seq;
+    }
+}
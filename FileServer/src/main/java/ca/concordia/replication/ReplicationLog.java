@@ -0,0 +1,160 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.MutationListener;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Bounded in-memory log of the primary's mutations, fed by the
+ * {@link ca.concordia.filesystem.FileSystemManager} change feed. Every entry gets a
+ * sequence number; followers that fall further behind than the retained window are
+ * caught up with a snapshot instead. Sequence numbers restart at 1 with every log, so
+ * each log also has a run id that tells followers which numbering they were given.
+ */
+public class ReplicationLog implements MutationListener {
+
+    public static final String CREATE = "CREATE";
+    public static final String WRITE = "WRITE";
+    public static final String TRUNCATE = "TRUNCATE";
+    public static final String DELETE = "DELETE";
+    public static final String RENAME = "RENAME";
+    public static final String COPY = "COPY";
+    public static final String MKDIR = "MKDIR";
+    public static final String RMDIR = "RMDIR";
+
+    public static final class Entry {
+        final long seq;
+        final String op;
+        final String fileName;
+        final byte[] data;
+        final int size;
+        final String target;
+
+        Entry(long seq, String op, String fileName, byte[] data, int size, String target) {
+            this.seq = seq;
+            this.op = op;
+            this.fileName = fileName;
+            this.data = data;
+            this.size = size;
+            this.target = target;
+        }
+
+        // <seq> CREATE|DELETE|MKDIR|RMDIR <path>, <seq> WRITE <path> <base64 data>
+        // <seq> TRUNCATE <path> <size> or <seq> RENAME|COPY <from> <to>
+        String encode() {
+            if (WRITE.equals(op)) {
+                return seq + " " + op + " " + fileName + " " + Base64.getEncoder().encodeToString(data);
+            }
+            if (TRUNCATE.equals(op)) {
+                return seq + " " + op + " " + fileName + " " + size;
+            }
+            if (target != null) {
+                return seq + " " + op + " " + fileName + " " + target;
+            }
+            return seq + " " + op + " " + fileName;
+        }
+    }
+
+    private final int capacity;
+    private final ArrayDeque<Entry> entries = new ArrayDeque<>();
+    private final String runId = UUID.randomUUID().toString();
+    private long lastSeq = 0;
+
+    public ReplicationLog(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public String runId() {
+        return runId;
+    }
+
+    @Override
+    public void onCreate(String fileName) {
+        append(CREATE, fileName, null);
+    }
+
+    @Override
+    public void onWrite(String fileName, byte[] contents) {
+        append(WRITE, fileName, contents.clone());
+    }
+
+    @Override
+    public void onTruncate(String fileName, int size) {
+        append(TRUNCATE, fileName, null, size, null);
+    }
+
+    @Override
+    public void onDelete(String fileName) {
+        append(DELETE, fileName, null);
+    }
+
+    @Override
+    public void onRename(String from, String to) {
+        append(RENAME, from, null, 0, to);
+    }
+
+    @Override
+    public void onCopy(String from, String to) {
+        append(COPY, from, null, 0, to);
+    }
+
+    @Override
+    public void onMkdir(String path) {
+        append(MKDIR, path, null);
+    }
+
+    @Override
+    public void onRmdir(String path) {
+        append(RMDIR, path, null);
+    }
+
+    public synchronized long lastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Entries after {@code seq}, waiting up to {@code timeoutMs} for one to show up.
+     * Returns null when entries after {@code seq} were already dropped from the window,
+     * or when {@code seq} is past the end of this log (it was handed out by an earlier
+     * run), meaning the follower needs a snapshot.
+     */
+    public synchronized List<Entry> entriesAfter(long seq, long timeoutMs) throws InterruptedException {
+        if (seq > lastSeq) {
+            return null;
+        }
+        if (seq == lastSeq && timeoutMs > 0) {
+            wait(timeoutMs);
+        }
+        List<Entry> out = new ArrayList<>();
+        if (seq >= lastSeq) {
+            return out;
+        }
+        Entry oldest = entries.peekFirst();
+        if (oldest == null || oldest.seq > seq + 1) {
+            return null;
+        }
+        for (Entry e : entries) {
+            if (e.seq > seq) {
+                out.add(e);
+            }
+        }
+        return out;
+    }
+
+    private void append(String op, String fileName, byte[] data) {
+        append(op, fileName, data, 0, null);
+    }
+
+    private synchronized void append(String op, String fileName, byte[] data, int size, String target) {
+        lastSeq++;
+        entries.addLast(new Entry(lastSeq, op, fileName, data, size, target));
+        if (entries.size() > capacity) {
+            entries.removeFirst();
+        }
+        notifyAll();
+    }
+}
@@ -0,0 +1,132 @@
+package ca.concordia.replication;
+
+import ca.concordia.filesystem.FileSystemManager;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Ships the mutation log to followers over TCP.
+ *
+ * Protocol, one line per message: the follower sends {@code FOLLOW <lastAppliedSeq> <runId>}
+ * (run id {@code -} before it has applied anything) and the primary answers {@code RUN <runId>}
+ * with the id of its own log. Sequence numbers from another run mean nothing to this log, so a
+ * follower that names a different run is sent a snapshot. Otherwise, if the primary still holds
+ * every entry after that sequence it streams them
+ * ({@code <seq> CREATE|WRITE|DELETE|MKDIR|RMDIR ...}); otherwise it first sends
+ * {@code SNAPSHOT <seq> <count>} followed by {@code count} lines: {@code DIR <path>}
+ * for every directory (parents first), then {@code FILE <path> <base64 data>} for every
+ * file. Streaming then continues from {@code seq}.
+ */
+public class ReplicationPrimary {
+
+    private static final long POLL_MS = 1000;
+
+    private final FileSystemManager fsManager;
+    private final ReplicationLog log;
+    private final int port;
+
+    public ReplicationPrimary(FileSystemManager fsManager, int port, int logCapacity) {
+        this.fsManager = fsManager;
+        this.port = port;
+        this.log = new ReplicationLog(logCapacity);
+        fsManager.addListener(log);
+    }
+
+    public void start() {
+        Thread acceptor = new Thread(this::acceptFollowers, "replication-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    private void acceptFollowers() {
+        try (ServerSocket serverSocket = new ServerSocket(port)) {
+            System.out.println("Replication listening on port " + port + "...");
+            while (true) {
+                Socket follower = serverSocket.accept();
+                System.out.println("Follower connected: " + follower);
+                Thread t = new Thread(() -> serveFollower(follower), "replication-" + follower.getPort());
+                t.setDaemon(true);
+                t.start();
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.err.println("Could not start replication on port " + port);
+        }
+    }
+
+    private void serveFollower(Socket follower) {
+        try (
+                BufferedReader reader = new BufferedReader(new InputStreamReader(follower.getInputStream()));
+                PrintWriter writer = new PrintWriter(follower.getOutputStream(), false)
+        ) {
+            String hello = reader.readLine();
+            if (hello == null || !hello.startsWith("FOLLOW ")) {
+                writer.println("ERROR: expected FOLLOW <seq> <run>");
+                writer.flush();
+                return;
+            }
+            String[] parts = hello.substring(7).trim().split(" ");
+            long seq = Long.parseLong(parts[0]);
+            String run = parts.length > 1 ? parts[1] : "-";
+            writer.println("RUN " + log.runId());
+            if (!run.equals(log.runId()) && (seq > 0 || !run.equals("-"))) {
+                //applied entries of an earlier primary run, its sequence numbers don't line up with ours
+                seq = sendSnapshot(writer);
+            }
+
+            while (!writer.checkError()) {
+                List<ReplicationLog.Entry> batch = log.entriesAfter(seq, POLL_MS);
+                if (batch == null) {
+                    //follower is new or too far behind
+                    seq = sendSnapshot(writer);
+                    continue;
+                }
+                for (ReplicationLog.Entry e : batch) {
+                    writer.println(e.encode());
+                    seq = e.seq;
+                }
+                writer.flush();
+            }
+        } catch (Exception e) {
+            System.out.println("Follower disconnected: " + follower + " (" + e.getMessage() + ")");
+        } finally {
+            try {
+                follower.close();
+            } catch (Exception ignored) {
+            }
+        }
+    }
+
+    private long sendSnapshot(PrintWriter writer) throws Exception {
+        long[] seq = new long[1];
+        String[][] dirs = new String[1][];
+        //files and sequence number taken together, no writer can slip in between
+        Map<String, byte[]> files = fsManager.readConsistent(() -> {
+            seq[0] = log.lastSeq();
+            dirs[0] = fsManager.listDirectories();
+            Map<String, byte[]> out = new LinkedHashMap<>();
+            for (String name : fsManager.listFiles()) {
+                out.put(name, fsManager.readFile(name));
+            }
+            return out;
+        });
+
+        writer.println("SNAPSHOT " + seq[0] + " " + (dirs[0].length + files.size()));
+        for (String dir : dirs[0]) {
+            writer.println("DIR " + dir);
+        }
+        for (Map.Entry<String, byte[]> f : files.entrySet()) {
+            writer.println("FILE " + f.getKey() + " " + Base64.getEncoder().encodeToString(f.getValue()));
+        }
+        writer.flush();
+        return seq[0];
+    }
+}
@@ -0,0 +1,113 @@
+package ca.concordia.server;
+
+import java.net.InetAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the server out of overload by refusing work early instead of queueing it:
+ * <ul>
+ *   <li>at most {@code maxConnections} open client connections,</li>
+ *   <li>at most {@code maxInFlight} commands running against the filesystem, with at most
+ *       {@code maxQueued} more waiting, each for no longer than the queue deadline,</li>
+ *   <li>optionally a token bucket per client address ({@code ratePerClient} requests per
+ *       second, shared by all connections from that address).</li>
+ * </ul>
+ * Whatever is refused gets {@code ERROR: busy} and can be retried later.
+ */
+public class AdmissionControl {
+
+    private final int maxConnections;
+    private final Semaphore connections;
+    private final Semaphore inFlight;
+    private final int maxQueued;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final long queueDeadlineNanos;
+    //<= 0 turns per-client rate limiting off
+    private final double ratePerClient;
+    private final int burst;
+    private final ConcurrentHashMap<InetAddress, Client> clients = new ConcurrentHashMap<>();
+    private final AtomicLong rejected = new AtomicLong();
+
+    // bucket of one client address, dropped when its last connection closes
+    private final class Client {
+        final TokenBucket bucket = new TokenBucket(ratePerClient, burst);
+        int connections = 0;
+    }
+
+    public AdmissionControl(int maxConnections, int maxInFlight, int maxQueued, long queueDeadlineMillis,
+                            double ratePerClient, int burst) {
+        this.maxConnections = maxConnections;
+        this.connections = new Semaphore(maxConnections);
+        this.inFlight = new Semaphore(maxInFlight, true);
+        this.maxQueued = maxQueued;
+        this.queueDeadlineNanos = TimeUnit.MILLISECONDS.toNanos(queueDeadlineMillis);
+        this.ratePerClient = ratePerClient;
+        this.burst = burst;
+    }
+
+    // false if the connection cap is reached; otherwise closeConnection must follow
+    public boolean openConnection(InetAddress address) {
+        if (!connections.tryAcquire()) {
+            rejected.incrementAndGet();
+            return false;
+        }
+        if (ratePerClient > 0) {
+            clients.compute(address, (a, c) -> {
+                Client client = c == null ? new Client() : c;
+                client.connections++;
+                return client;
+            });
+        }
+        return true;
+    }
+
+    public void closeConnection(InetAddress address) {
+        if (ratePerClient > 0) {
+            clients.computeIfPresent(address, (a, c) -> --c.connections == 0 ? null : c);
+        }
+        connections.release();
+    }
+
+    // false if the command must be refused; otherwise finishCommand must follow
+    public boolean beginCommand(InetAddress address) {
+        if (ratePerClient > 0) {
+            Client client = clients.get(address);
+            if (client != null && !client.bucket.tryTake()) {
+                rejected.incrementAndGet();
+                return false;
+            }
+        }
+        if (inFlight.tryAcquire()) {
+            return true;
+        }
+        //bounded wait: a full queue or a missed deadline is answered right away
+        try {
+            if (queued.incrementAndGet() <= maxQueued
+                    && inFlight.tryAcquire(queueDeadlineNanos, TimeUnit.NANOSECONDS)) {
+                return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            queued.decrementAndGet();
+        }
+        rejected.incrementAndGet();
+        return false;
+    }
+
+    public void finishCommand() {
+        inFlight.release();
+    }
+
+    public int openConnections() {
+        return maxConnections - connections.availablePermits();
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+}
@@ -47,7 +47,7 @@ public class ClientHandler implements Runnable {
                             break;
 
                         case "LIST":
-                            String files=fsManager.listFiles();
+                            String[] files=fsManager.listFiles();
                             writer.println(String.join(",",files));
                             break;
 
@@ -0,0 +1,34 @@
+package ca.concordia.server;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * JFR event for one client command, from parsing to the reply being buffered
+ * (admission wait and the socket write are not included).
+ * Record with {@code -XX:StartFlightRecording}; costs nothing when JFR is off.
+ */
+@Name("ca.concordia.Command")
+@Label("Command")
+@Category({"File Server", "Server"})
+@Description("Execution of one client command")
+final class CommandEvent extends Event {
+
+    @Label("Command")
+    String command;
+
+    @Label("Path")
+    String path;
+
+    @Label("Error")
+    @Description("The reply was an ERROR")
+    boolean error;
+
+    @Label("Reply Size")
+    @DataAmount
+    int replyBytes;
+}
@@ -0,0 +1,211 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads request lines of one connection straight off the socket into a reusable byte
+ * buffer and splits them on whitespace, without decoding chars or creating Strings.
+ * Tokens are offsets into the buffer; {@link #copyRest(int)} covers everything from a token
+ * to the end of the line (WRITE data may contain spaces).
+ *
+ * Not thread safe, one instance per connection.
+ */
+public class CommandReader {
+
+    private static final int MAX_TOKENS = 5;
+    private static final int MAX_LINE = 1 << 20;
+    private static final int NAME_CACHE = 8;
+
+    private final InputStream in;
+    private byte[] buf = new byte[8192];
+    private int pos = 0;
+    private int limit = 0;
+    private int scanned = 0;
+    private boolean eof = false;
+
+    //current line, trimmed
+    private int lineEnd;
+    private final int[] starts = new int[MAX_TOKENS];
+    private final int[] ends = new int[MAX_TOKENS];
+    private int count;
+
+    //recently decoded names, repeated requests on the same file reuse the same String
+    private final byte[][] nameKeys = new byte[NAME_CACHE][];
+    private final String[] nameValues = new String[NAME_CACHE];
+    private int nameNext = 0;
+
+    public CommandReader(InputStream in) {
+        this.in = in;
+    }
+
+    // next request line, false once the client closed the connection
+    public boolean next() throws IOException {
+        while (true) {
+            for (int i = scanned; i < limit; i++) {
+                if (buf[i] == '\n') {
+                    split(pos, i);
+                    pos = i + 1;
+                    scanned = pos;
+                    return true;
+                }
+            }
+            scanned = limit;
+            if (eof) {
+                if (pos == limit) {
+                    return false;
+                }
+                //last line without terminator
+                split(pos, limit);
+                pos = limit;
+                scanned = limit;
+                return true;
+            }
+            fill();
+        }
+    }
+
+    // true if the client already sent more than the current line (pipelined requests)
+    public boolean hasBuffered() {
+        return pos < limit;
+    }
+
+    public int tokens() {
+        return count;
+    }
+
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int start(int i) {
+        return starts[i];
+    }
+
+    public int length(int i) {
+        return ends[i] - starts[i];
+    }
+
+    // length from token i to the end of the line
+    public int restLength(int i) {
+        return lineEnd - starts[i];
+    }
+
+    // ASCII case-insensitive match of token i against an upper-case keyword
+    public boolean is(int i, byte[] upper) {
+        int off = starts[i];
+        if (ends[i] - off != upper.length) {
+            return false;
+        }
+        for (int j = 0; j < upper.length; j++) {
+            int b = buf[off + j];
+            if (b >= 'a' && b <= 'z') {
+                b -= 'a' - 'A';
+            }
+            if (b != upper[j]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public String text(int i) {
+        return decode(starts[i], ends[i] - starts[i]);
+    }
+
+    // token i as a path without its leading '/', the form the filesystem reports paths in
+    public String path(int i) {
+        int off = starts[i];
+        int len = ends[i] - off;
+        return len > 1 && buf[off] == '/' ? decode(off + 1, len - 1) : decode(off, len);
+    }
+
+    private String decode(int off, int len) {
+        for (int k = 0; k < NAME_CACHE; k++) {
+            byte[] key = nameKeys[k];
+            if (key != null && Arrays.equals(key, 0, key.length, buf, off, off + len)) {
+                return nameValues[k];
+            }
+        }
+        String s = new String(buf, off, len, StandardCharsets.UTF_8);
+        nameKeys[nameNext] = Arrays.copyOfRange(buf, off, off + len);
+        nameValues[nameNext] = s;
+        nameNext = (nameNext + 1) % NAME_CACHE;
+        return s;
+    }
+
+    public byte[] copyRest(int i) {
+        return Arrays.copyOfRange(buf, starts[i], lineEnd);
+    }
+
+    // token i as a non-negative int, -1 if it is not one
+    public int number(int i) {
+        return ends[i] - starts[i] > 9 ? -1 : (int) longNumber(i);
+    }
+
+    // token i as a non-negative long (e.g. a version), -1 if it is not one
+    public long longNumber(int i) {
+        int len = ends[i] - starts[i];
+        if (len == 0 || len > 18) {
+            return -1;
+        }
+        long v = 0;
+        for (int j = starts[i]; j < ends[i]; j++) {
+            int d = buf[j] - '0';
+            if (d < 0 || d > 9) {
+                return -1;
+            }
+            v = v * 10 + d;
+        }
+        return v;
+    }
+
+    private void split(int from, int to) {
+        while (to > from && isSpace(buf[to - 1])) {
+            to--;
+        }
+        lineEnd = to;
+        count = 0;
+        int p = from;
+        while (count < MAX_TOKENS) {
+            while (p < to && isSpace(buf[p])) {
+                p++;
+            }
+            if (p == to) {
+                break;
+            }
+            starts[count] = p;
+            while (p < to && !isSpace(buf[p])) {
+                p++;
+            }
+            ends[count++] = p;
+        }
+    }
+
+    private void fill() throws IOException {
+        if (pos > 0) {
+            System.arraycopy(buf, pos, buf, 0, limit - pos);
+            limit -= pos;
+            scanned -= pos;
+            pos = 0;
+        }
+        if (limit == buf.length) {
+            if (buf.length >= MAX_LINE) {
+                throw new IOException("request line too long");
+            }
+            buf = Arrays.copyOf(buf, buf.length * 2);
+        }
+        int n = in.read(buf, limit, buf.length - limit);
+        if (n < 0) {
+            eof = true;
+        } else {
+            limit += n;
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\f' || b == 0x0B;
+    }
+}
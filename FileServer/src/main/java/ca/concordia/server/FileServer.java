@@ -1,29 +1,190 @@
 package ca.concordia.server;
 
+import ca.concordia.cluster.ConsistentHashRing;
+import ca.concordia.cluster.Topology;
+import ca.concordia.filesystem.Defragmenter;
+import ca.concordia.filesystem.FileContents;
+import ca.concordia.filesystem.FileInfo;
 import ca.concordia.filesystem.FileSystemManager;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import ca.concordia.filesystem.ListPage;
+import ca.concordia.filesystem.MutationListener;
+import ca.concordia.replication.ReplicationFollower;
+import ca.concordia.replication.ReplicationPrimary;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import jdk.jfr.EventType;
 
 public class FileServer {
 
     private final FileSystemManager fsManager;
     private final int port;
+    //paged LIST
+    private static final int DEFAULT_PAGE = 100;
+    private static final int MAX_PAGE = 1000;
+    //followers only serve READ/LIST, the primary's log is the only writer
+    private volatile boolean readOnly = false;
+    //cluster mode: this node only serves the filenames the ring assigns to it
+    private volatile ConsistentHashRing ring;
+    private volatile String nodeName;
+    //opcodes are matched as bytes, index in OPCODES
+    private static final int OP_CREATE = 0;
+    private static final int OP_WRITE = 1;
+    private static final int OP_READ = 2;
+    private static final int OP_DELETE = 3;
+    private static final int OP_MKDIR = 4;
+    private static final int OP_RMDIR = 5;
+    private static final int OP_LISTDIR = 6;
+    private static final int OP_LIST = 7;
+    private static final int OP_QUIT = 8;
+    private static final int OP_TRUNCATE = 9;
+    private static final int OP_RENAME = 10;
+    private static final int OP_COPY = 11;
+    private static final int OP_WATCH = 12;
+    private static final int OP_UNWATCH = 13;
+    private static final int OP_STAT = 14;
+    private static final byte[][] OPCODES = {
+            ascii("CREATE"), ascii("WRITE"), ascii("READ"), ascii("DELETE"),
+            ascii("MKDIR"), ascii("RMDIR"), ascii("LISTDIR"), ascii("LIST"), ascii("QUIT"),
+            ascii("TRUNCATE"), ascii("RENAME"), ascii("COPY"), ascii("WATCH"), ascii("UNWATCH"),
+            ascii("STAT")
+    };
+    private static final byte[] STAR = ascii("*");
+    private static final byte[] IF_MATCH = ascii("IF-MATCH");
+    private static final byte[] IF_NONE_MATCH = ascii("IF-NONE-MATCH");
+    //pre-encoded reply prefixes
+    private static final byte[] OK = ascii("OK: ");
+    private static final byte[] OK_CREATED = ascii("OK: created ");
+    private static final byte[] OK_WROTE = ascii("OK: wrote ");
+    private static final byte[] OK_DELETED = ascii("OK: deleted ");
+    private static final byte[] OK_TRUNCATED = ascii("OK: truncated ");
+    private static final byte[] OK_RENAMED = ascii("OK: renamed ");
+    private static final byte[] OK_COPIED = ascii("OK: copied ");
+    private static final byte[] TO = ascii(" to ");
+    private static final byte[] OK_WATCHING = ascii("OK: watching ");
+    private static final byte[] OK_UNWATCHED = ascii("OK: unwatched ");
+    //own status word: a READ reply ("OK: <data>") can never look like a page header
+    private static final byte[] PAGE = ascii("PAGE ");
+    private static final byte[] OK_GOODBYE = ascii("OK: goodbye\n");
+    private static final byte[] REDIRECT = ascii("REDIRECT ");
+    private static final byte[] NOT_MODIFIED = ascii("NOT_MODIFIED ");
+    private static final byte[] ERROR = ascii("ERROR: ");
+    private static final byte[] ERR_EMPTY = ascii("ERROR: empty command\n");
+    private static final byte[] ERR_UNKNOWN = ascii("ERROR: unknown command\n");
+    private static final byte[] ERR_READ_ONLY = ascii("ERROR: read-only follower\n");
+    private static final byte[] ERR_BUSY = ascii("ERROR: busy\n");
+    private static final EventType COMMAND_EVENT = EventType.getEventType(CommandEvent.class);
+    //connection cap, bounded command queue and optional per-client rate limit
+    private volatile AdmissionControl admission = new AdmissionControl(512, 64, 1024, 500, 0, 0);
+    //WATCH subscriptions, pushed as EVENT lines
+    private final WatchRegistry watches;
+    //encoded READ responses of hot files
+    private final ResponseCache readCache = new ResponseCache(1024, 4 * 1024 * 1024, 64 * 1024);
 
     public FileServer(int port, String fileSystemName, int totalSize) {
-        this.fsManager = new FileSystemManager(fileSystemName, totalSize);
+        this(port, new String[]{fileSystemName}, totalSize);
+    }
+
+    // volume striped across several backing files, e.g. one per disk
+    public FileServer(int port, String[] fileSystemNames, int totalSize) {
+        this.fsManager = new FileSystemManager(fileSystemNames, totalSize);
         this.port = port;
+        this.watches = new WatchRegistry(fsManager);
+        fsManager.addListener(watches);
+        //stale entries are never served anyway, this just frees them early
+        fsManager.addListener(new MutationListener() {
+            @Override
+            public void onCreate(String fileName) {
+            }
+
+            @Override
+            public void onWrite(String fileName, byte[] contents) {
+                readCache.invalidate(fileName);
+            }
+
+            @Override
+            public void onTruncate(String fileName, int size) {
+                readCache.invalidate(fileName);
+            }
+
+            @Override
+            public void onDelete(String fileName) {
+                readCache.invalidate(fileName);
+            }
+
+            @Override
+            public void onRename(String from, String to) {
+                readCache.invalidate(from);
+                readCache.invalidate(to);
+            }
+
+            @Override
+            public void onCopy(String from, String to) {
+                readCache.invalidate(to);
+            }
+
+            @Override
+            public void onMkdir(String path) {
+            }
+
+            @Override
+            public void onRmdir(String path) {
+            }
+        });
+    }
+
+    // ship every mutation to followers connecting on replicationPort
+    public void enableReplication(int replicationPort) {
+        new ReplicationPrimary(fsManager, replicationPort, 1024).start();
+    }
+
+    // compact fragmented files in the background every intervalMs
+    public void enableDefragmenter(long intervalMs) {
+        new Defragmenter(fsManager, intervalMs, 10).start();
+    }
+
+    // buffer written data for delayMs before it gets blocks; flushed on JVM shutdown
+    public void enableWriteBack(long delayMs) {
+        fsManager.enableWriteBack(delayMs);
+    }
+
+    // become a read-only follower of the primary's replication port
+    public void followPrimary(String primaryHost, int primaryPort) {
+        readOnly = true;
+        new ReplicationFollower(fsManager, primaryHost, primaryPort).start();
+    }
+
+    // serve only this node's share of the namespace, misrouted requests get REDIRECT <host>:<port>
+    public void joinCluster(Topology topology, String nodeName) {
+        if (topology.getNode(nodeName) == null) {
+            throw new IllegalArgumentException("Node " + nodeName + " is not in the topology");
+        }
+        this.nodeName = nodeName;
+        this.ring = new ConsistentHashRing(topology);
+    }
+
+    // replaces the default limits, call before start()
+    public void setAdmissionControl(AdmissionControl admission) {
+        this.admission = admission;
     }
 
     public void start() {
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("Server started. Listening on port " + port + "...");
+            //on exit: flush write-back data and close the backing files
+            Runtime.getRuntime().addShutdownHook(new Thread(this::closeVolume, "volume-close"));
 
             //accept clients one by one
             while (true) {
                 Socket clientSocket = serverSocket.accept();
+                if (!admission.openConnection(clientSocket.getInetAddress())) {
+                    //over the connection cap: say so and hang up, no thread for it
+                    reject(clientSocket);
+                    continue;
+                }
                 System.out.println("New client connected: " + clientSocket);
 
                 Thread t = new Thread(() -> handleClient(clientSocket));
@@ -35,29 +196,65 @@ public class FileServer {
         }
     }
 
+    private void closeVolume() {
+        try {
+            fsManager.close();
+        } catch (Exception e) {
+            System.err.println("Closing the volume failed: " + e.getMessage());
+        }
+    }
+
+    private void reject(Socket clientSocket) {
+        try (clientSocket) {
+            clientSocket.getOutputStream().write(ERR_BUSY);
+        } catch (Exception ignored) {
+        }
+    }
+
     private void handleClient(Socket clientSocket) {
         System.out.println("Handling client in thread: " + Thread.currentThread().getName());
+        AdmissionControl limits = admission;
+        InetAddress address = clientSocket.getInetAddress();
+        WatchRegistry.Watcher watcher = null;
         try (
-                BufferedReader reader =
-                        new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-                PrintWriter writer =
-                        new PrintWriter(clientSocket.getOutputStream(), true)
+                InputStream input = clientSocket.getInputStream();
+                OutputStream output = clientSocket.getOutputStream()
         ) {
-            String line;
+            //both buffers live as long as the connection, requests reuse them
+            CommandReader request = new CommandReader(input);
+            ResponseWriter response = new ResponseWriter();
+            //pushed events write to the same stream, always under its monitor
+            watcher = watches.newWatcher(output);
 
             // Read commands line by line
-            while ((line = reader.readLine()) != null) {
-                System.out.println("Received from client: " + line);
-
-                String response = handleCommand(line);
-
-                writer.println(response);
-                writer.flush();
+            while (request.next()) {
+                boolean quit;
+                if (limits.beginCommand(address)) {
+                    try {
+                        quit = handleCommand(request, response, watcher);
+                    } finally {
+                        limits.finishCommand();
+                    }
+                } else {
+                    response.write(ERR_BUSY);
+                    quit = false;
+                }
 
-                if (line.trim().equalsIgnoreCase("QUIT")) {
+                //pipelined requests are answered with one socket write
+                if (quit || !request.hasBuffered()) {
+                    synchronized (output) {
+                        response.flushTo(output);
+                    }
+                }
+                if (quit) {
                     break;
                 }
             }
+            if (!response.isEmpty()) {
+                synchronized (output) {
+                    response.flushTo(output);
+                }
+            }
         } catch (Exception e) {
             e.printStackTrace();
         } finally {
@@ -65,67 +262,335 @@ public class FileServer {
                 clientSocket.close();
             } catch (Exception ignored) {
             }
+            if (watcher != null) {
+                watcher.close();
+            }
+            limits.closeConnection(address);
             System.out.println("Client disconnected: " + clientSocket);
         }
     }
 
-    private String handleCommand(String line) {
-        if (line == null || line.trim().isEmpty()) {
-            return "ERROR: empty command";
+    // appends the reply to out, returns true if the client asked to disconnect
+    private boolean handleCommand(CommandReader req, ResponseWriter out, WatchRegistry.Watcher watcher) {
+        //checked on the type, so no event object is created while nothing records it
+        if (!COMMAND_EVENT.isEnabled()) {
+            return execute(req, out, watcher);
+        }
+        CommandEvent event = new CommandEvent();
+        int replyStart = out.size();
+        event.begin();
+        try {
+            return execute(req, out, watcher);
+        } finally {
+            event.end();
+            if (event.shouldCommit()) {
+                event.command = req.tokens() == 0 ? "" : req.text(0);
+                event.path = req.tokens() > 1 ? req.text(1) : null;
+                event.error = out.startsWith(replyStart, ERROR);
+                event.replyBytes = out.size() - replyStart;
+                event.commit();
+            }
+        }
+    }
+
+    private boolean execute(CommandReader req, ResponseWriter out, WatchRegistry.Watcher watcher) {
+        if (req.tokens() == 0) {
+            out.write(ERR_EMPTY);
+            return false;
+        }
+
+        int op = opcode(req);
+        int args = req.tokens();
+
+        if (readOnly && isMutation(op)) {
+            out.write(ERR_READ_ONLY);
+            return false;
         }
 
-        // Split into maximum 3 parts
-        String[] parts = line.trim().split("\\s+", 3);
-        String command = parts[0].toUpperCase();
+        //LIST, WATCH and directory commands stay local: every node holds the whole directory tree
+        //and the client fans them out to all nodes
+        if (ring != null && args >= 2 && op != OP_LIST && op != OP_WATCH && op != OP_UNWATCH
+                && !isDirectoryCommand(op)) {
+            Topology.Node owner = ring.ownerOf(req.text(1));
+            if (!owner.getName().equals(nodeName)) {
+                out.write(REDIRECT).write(owner.getAddress()).write('\n');
+                return false;
+            }
+        }
 
         try {
             //case fro every methods
-            switch (command) {
-                case "CREATE":
-                    if (parts.length < 2) {
-                        return "ERROR: CREATE requires a filename";
+            switch (op) {
+                case OP_CREATE:
+                    if (args < 2) {
+                        return error(out, "CREATE requires a filename");
+                    }
+                    fsManager.createFile(req.text(1));
+                    out.write(OK_CREATED).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
+
+                case OP_WRITE:
+                    if (args < 3) {
+                        return error(out, "WRITE requires filename and data");
                     }
-                    fsManager.createFile(parts[1]);
-                    return "OK: created " + parts[1];
+                    // WRITE <file> IF-MATCH <version> <data>: only if nobody wrote in between
+                    if (req.is(2, IF_MATCH)) {
+                        //never fall back to a plain write, that would skip the check
+                        if (args < 5 || req.longNumber(3) < 0) {
+                            return error(out, "IF-MATCH requires a version and data");
+                        }
+                        long version = fsManager.writeFile(req.text(1), req.copyRest(4), req.longNumber(3));
+                        out.write(OK_WROTE).write(req.buffer(), req.start(1), req.length(1))
+                                .write(' ').write(version).write('\n');
+                        return false;
+                    }
+                    fsManager.writeFile(req.text(1), req.copyRest(2));
+                    out.write(OK_WROTE).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
 
-                case "WRITE":
-                    if (parts.length < 3) {
-                        return "ERROR: WRITE requires filename and data";
+                case OP_TRUNCATE:
+                    if (args < 3) {
+                        return error(out, "TRUNCATE requires filename and size");
+                    }
+                    int size = req.number(2);
+                    if (size < 0) {
+                        return error(out, "TRUNCATE size must be a number");
                     }
-                    fsManager.writeFile(parts[1], parts[2].getBytes());
-                    return "OK: wrote " + parts[1];
+                    fsManager.truncateFile(req.text(1), size);
+                    out.write(OK_TRUNCATED).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
 
-                case "READ":
-                    if (parts.length < 2) {
-                        return "ERROR: READ requires a filename";
+                case OP_RENAME:
+                case OP_COPY:
+                    if (args < 3) {
+                        return error(out, (op == OP_RENAME ? "RENAME" : "COPY") + " requires source and target");
+                    }
+                    //both names must live on this node, blocks are never shipped between nodes
+                    if (ring != null && !ring.ownerOf(req.text(2)).getName().equals(nodeName)) {
+                        return error(out, "source and target are on different nodes");
+                    }
+                    if (op == OP_RENAME) {
+                        fsManager.renameFile(req.text(1), req.text(2));
+                        out.write(OK_RENAMED);
+                    } else {
+                        fsManager.copyFile(req.text(1), req.text(2));
+                        out.write(OK_COPIED);
                     }
-                    byte[] data = fsManager.readFile(parts[1]);
-                    return "OK: " + new String(data);
+                    out.write(req.buffer(), req.start(1), req.length(1)).write(TO)
+                            .write(req.buffer(), req.start(2), req.length(2)).write('\n');
+                    return false;
 
-                case "DELETE":
-                    if (parts.length < 2) {
-                        return "ERROR: DELETE requires a filename";
+                // WATCH <file|prefix*>: EVENT lines follow on this connection until UNWATCH or QUIT
+                case OP_WATCH:
+                    if (args < 2) {
+                        return error(out, "WATCH requires a filename or prefix*");
                     }
-                    fsManager.deleteFile(parts[1]);
-                    return "OK: deleted " + parts[1];
+                    watcher.add(req.text(1));
+                    out.write(OK_WATCHING).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
 
-                case "LIST":
-                    String[] files = fsManager.listFiles();
-                    return "OK: " + String.join(",", files);
+                case OP_UNWATCH:
+                    if (args < 2) {
+                        return error(out, "UNWATCH requires a filename or prefix*");
+                    }
+                    if (!watcher.remove(req.text(1))) {
+                        return error(out, "not watching " + req.text(1));
+                    }
+                    out.write(OK_UNWATCHED).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
+
+                case OP_READ:
+                    if (args < 2) {
+                        return error(out, "READ requires a filename");
+                    }
+                    if (args >= 3 && req.is(2, IF_NONE_MATCH)) {
+                        long version = args >= 4 ? req.longNumber(3) : -1;
+                        if (version < 0) {
+                            return error(out, "IF-NONE-MATCH requires a version");
+                        }
+                        readIfModified(req, version, out);
+                        return false;
+                    }
+                    read(req, out);
+                    return false;
+
+                case OP_STAT:
+                    if (args < 2) {
+                        return error(out, "STAT requires a filename");
+                    }
+                    FileInfo info = fsManager.stat(req.text(1));
+                    out.write(OK).write(info.getSize()).write(' ').write(info.getModified())
+                            .write(' ').write(info.getVersion()).write('\n');
+                    return false;
 
-                case "QUIT":
+                case OP_DELETE:
+                    if (args < 2) {
+                        return error(out, "DELETE requires a filename");
+                    }
+                    fsManager.deleteFile(req.text(1));
+                    out.write(OK_DELETED).write(req.buffer(), req.start(1), req.length(1)).write('\n');
+                    return false;
+
+                case OP_MKDIR:
+                    if (args < 2) {
+                        return error(out, "MKDIR requires a path");
+                    }
+                    fsManager.createDirectory(req.text(1));
+                    out.write(OK_CREATED).write(req.buffer(), req.start(1), req.length(1)).write('/').write('\n');
+                    return false;
+
+                case OP_RMDIR:
+                    if (args < 2) {
+                        return error(out, "RMDIR requires a path");
+                    }
+                    fsManager.deleteDirectory(req.text(1));
+                    out.write(OK_DELETED).write(req.buffer(), req.start(1), req.length(1)).write('/').write('\n');
+                    return false;
+
+                case OP_LISTDIR:
+                    joined(out, fsManager.listDirectory(args < 2 ? "" : req.text(1)));
+                    return false;
+
+                case OP_LIST:
+                    if (args >= 2) {
+                        listPage(req, out);
+                    } else {
+                        joined(out, fsManager.listFiles());
+                    }
+                    return false;
+
+                case OP_QUIT:
                     // client closes after this
-                    return "OK: goodbye";
+                    out.write(OK_GOODBYE);
+                    return args == 1;
 
                 default:
-                    return "ERROR: unknown command";
+                    out.write(ERR_UNKNOWN);
+                    return false;
             }
         } catch (Exception e) {
             String msg = e.getMessage();
             if (msg == null || msg.isEmpty()) {
                 msg = "internal error";
             }
-            return "ERROR: " + msg;
+            return error(out, msg);
+        }
+    }
+
+    // READ <file> IF-NONE-MATCH <version>: "NOT_MODIFIED <version>" or "OK: <version> <data>"
+    private void readIfModified(CommandReader req, long version, ResponseWriter out) throws Exception {
+        //resolved from the request bytes, an unchanged file costs no allocation
+        int inode = fsManager.findInode(req.buffer(), req.start(1), req.length(1));
+        if (inode >= 0 && fsManager.versionOf(inode) == version) {
+            out.write(NOT_MODIFIED).write(version).write('\n');
+            return;
+        }
+        //versions only grow, so whatever is read now is newer than the client's
+        FileContents contents = fsManager.readVersioned(req.text(1));
+        byte[] data = contents.getData();
+        out.write(OK).write(contents.getVersion()).write(' ').write(data, 0, data.length).write('\n');
+    }
+
+    /**
+     * Hot files are answered straight from the cache, already encoded. A hit allocates
+     * nothing: the file is looked up with the request bytes and the cache key is the
+     * connection's cached String for the name. Misses and errors go through the String API.
+     */
+    private void read(CommandReader req, ResponseWriter out) throws Exception {
+        int inode = fsManager.findInode(req.buffer(), req.start(1), req.length(1));
+        long version = inode < 0 ? -1 : fsManager.versionOf(inode);
+        byte[] cached = version < 0 ? null : readCache.get(req.path(1), inode, version);
+        if (cached != null) {
+            out.write(cached);
+            return;
+        }
+        //also reports a missing file or an invalid name
+        String name = req.text(1);
+        FileInfo before = fsManager.stat(name);
+        byte[] data = fsManager.readFile(name);
+        byte[] reply = new byte[OK.length + data.length + 1];
+        System.arraycopy(OK, 0, reply, 0, OK.length);
+        System.arraycopy(data, 0, reply, OK.length, data.length);
+        reply[reply.length - 1] = '\n';
+        out.write(reply);
+        remember(before, reply);
+    }
+
+    //caches the reply only if the file did not change while it was read
+    private void remember(FileInfo before, byte[] reply) {
+        try {
+            FileInfo after = fsManager.stat(before.getPath());
+            if (after.getInode() == before.getInode() && after.getVersion() == before.getVersion()) {
+                readCache.put(before.getPath(), before.getInode(), before.getVersion(), reply);
+            }
+        } catch (Exception ignored) {
+            //deleted meanwhile, nothing to cache
         }
     }
+
+    // LIST <prefix|*> [limit] [cursor]
+    // reply: "PAGE <n> <next cursor|->" then n lines of "<path> <size> <modified millis>"
+    private void listPage(CommandReader req, ResponseWriter out) throws Exception {
+        String prefix = req.is(1, STAR) ? "" : req.text(1);
+        int limit = DEFAULT_PAGE;
+        if (req.tokens() >= 3) {
+            limit = req.number(2);
+            if (limit < 0) {
+                error(out, "LIST limit must be a number");
+                return;
+            }
+            if (limit < 1 || limit > MAX_PAGE) {
+                error(out, "LIST limit must be between 1 and " + MAX_PAGE);
+                return;
+            }
+        }
+        String cursor = req.tokens() >= 4 ? req.text(3) : null;
+
+        ListPage page = fsManager.listFiles(prefix, cursor, limit);
+        FileInfo[] entries = page.getEntries();
+        out.write(PAGE).write(entries.length).write(' ')
+                .write(page.getNextCursor() == null ? "-" : page.getNextCursor());
+        for (FileInfo fi : entries) {
+            out.write('\n').write(fi.getPath()).write(' ').write(fi.getSize()).write(' ').write(fi.getModified());
+        }
+        out.write('\n');
+    }
+
+    private static void joined(ResponseWriter out, String[] names) {
+        out.write(OK);
+        for (int i = 0; i < names.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            out.write(names[i]);
+        }
+        out.write('\n');
+    }
+
+    private static boolean error(ResponseWriter out, String msg) {
+        out.write(ERROR).write(msg).write('\n');
+        return false;
+    }
+
+    private static int opcode(CommandReader req) {
+        for (int op = 0; op < OPCODES.length; op++) {
+            if (req.is(0, OPCODES[op])) {
+                return op;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isMutation(int op) {
+        return op == OP_CREATE || op == OP_WRITE || op == OP_TRUNCATE || op == OP_DELETE
+                || op == OP_RENAME || op == OP_COPY || op == OP_MKDIR || op == OP_RMDIR;
+    }
+
+    private static boolean isDirectoryCommand(int op) {
+        return op == OP_MKDIR || op == OP_RMDIR || op == OP_LISTDIR;
+    }
+
+    private static byte[] ascii(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
 }
@@ -0,0 +1,70 @@
+package ca.concordia.server;
+
+/**
+ * Count-min sketch of recent access frequencies, used for TinyLFU admission.
+ * Four rows of small counters (capped at 15); once {@code 10 * width} accesses were
+ * recorded every counter is halved, so old popularity fades out.
+ *
+ * Updates are deliberately unsynchronized: a lost increment only makes an estimate
+ * slightly lower, which is fine for an admission heuristic.
+ */
+public class FrequencySketch {
+
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 15;
+    private static final int[] SEEDS = {0x9E3779B9, 0x85EBCA6B, 0xC2B2AE35, 0x27D4EB2F};
+
+    private final byte[][] table;
+    private final int mask;
+    private final int sampleSize;
+    private int additions = 0;
+
+    public FrequencySketch(int expectedItems) {
+        int width = Integer.highestOneBit(Math.max(16, expectedItems) * 2 - 1);
+        table = new byte[ROWS][width];
+        mask = width - 1;
+        sampleSize = 10 * width;
+    }
+
+    public void increment(Object key) {
+        int h = spread(key.hashCode());
+        for (int r = 0; r < ROWS; r++) {
+            int i = index(h, r);
+            if (table[r][i] < MAX_COUNT) {
+                table[r][i]++;
+            }
+        }
+        if (++additions >= sampleSize) {
+            age();
+        }
+    }
+
+    public int frequency(Object key) {
+        int h = spread(key.hashCode());
+        int min = MAX_COUNT;
+        for (int r = 0; r < ROWS; r++) {
+            min = Math.min(min, table[r][index(h, r)]);
+        }
+        return min;
+    }
+
+    private void age() {
+        additions = 0;
+        for (byte[] row : table) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) (row[i] >> 1);
+            }
+        }
+    }
+
+    private int index(int h, int row) {
+        int x = h * SEEDS[row];
+        return (x ^ (x >>> 16)) & mask;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x45D9F3B;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,110 @@
+package ca.concordia.server;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Whole-file cache of encoded READ responses, ready to be written to the socket.
+ * An entry is only valid for the (inode, version) it was built from, so a hit is
+ * checked against a lock-free stat of the file and stale entries are never served;
+ * writes and deletes also drop entries eagerly to free the memory.
+ *
+ * Size is bounded by entry count and total bytes. When full, a new response is only
+ * admitted if it is read more often than a victim sampled from the cache (TinyLFU),
+ * so a burst of one-off reads cannot flush the hot set.
+ */
+public class ResponseCache {
+
+    private static final int EVICTION_SAMPLE = 8;
+
+    private static final class Entry {
+        final int inode;
+        final long version;
+        final byte[] response;
+
+        Entry(int inode, long version, byte[] response) {
+            this.inode = inode;
+            this.version = version;
+            this.response = response;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxObjectBytes;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong bytes = new AtomicLong();
+    private final FrequencySketch sketch;
+
+    public ResponseCache(int maxEntries, long maxBytes, int maxObjectBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxObjectBytes = maxObjectBytes;
+        this.sketch = new FrequencySketch(maxEntries);
+    }
+
+    // response for this exact version of the file, or null; every lookup counts as an access
+    public byte[] get(String path, int inode, long version) {
+        sketch.increment(path);
+        Entry e = entries.get(path);
+        if (e == null || e.inode != inode || e.version != version) {
+            return null;
+        }
+        return e.response;
+    }
+
+    public void put(String path, int inode, long version, byte[] response) {
+        if (response.length > maxObjectBytes) {
+            return;
+        }
+        Entry fresh = new Entry(inode, version, response);
+        Entry old = entries.get(path);
+        if (old == null) {
+            while (entries.size() >= maxEntries || bytes.get() + response.length > maxBytes) {
+                String victim = sampleVictim();
+                if (victim == null) {
+                    return;
+                }
+                //TinyLFU admission: keep the victim unless the newcomer is more popular
+                if (sketch.frequency(path) <= sketch.frequency(victim)) {
+                    return;
+                }
+                invalidate(victim);
+            }
+            if (entries.putIfAbsent(path, fresh) == null) {
+                bytes.addAndGet(response.length);
+            }
+        } else if (old.version < version && entries.replace(path, old, fresh)) {
+            bytes.addAndGet(response.length - old.response.length);
+        }
+    }
+
+    public void invalidate(String path) {
+        Entry e = entries.remove(path);
+        if (e != null) {
+            bytes.addAndGet(-e.response.length);
+        }
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    //least frequently used among the first few entries of the table
+    private String sampleVictim() {
+        String victim = null;
+        int best = Integer.MAX_VALUE;
+        Iterator<String> it = entries.keySet().iterator();
+        for (int i = 0; i < EVICTION_SAMPLE && it.hasNext(); i++) {
+            String k = it.next();
+            int f = sketch.frequency(k);
+            if (f < best) {
+                best = f;
+                victim = k;
+            }
+        }
+        return victim;
+    }
+}
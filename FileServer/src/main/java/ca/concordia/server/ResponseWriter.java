@@ -0,0 +1,105 @@
+package ca.concordia.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reusable per-connection response buffer. Replies are assembled from pre-encoded
+ * prefixes, bytes of the request and numbers written digit by digit, then handed to the
+ * socket in one write by {@link #flushTo}. Appending never throws, so a reply can be
+ * built after the filesystem call without caring about socket errors.
+ *
+ * Not thread safe, one instance per connection.
+ */
+public class ResponseWriter {
+
+    private static final int INITIAL = 8192;
+
+    private byte[] buf = new byte[INITIAL];
+    private int count = 0;
+
+    public ResponseWriter write(byte[] b) {
+        return write(b, 0, b.length);
+    }
+
+    public ResponseWriter write(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+        return this;
+    }
+
+    public ResponseWriter write(char c) {
+        ensure(1);
+        buf[count++] = (byte) c;
+        return this;
+    }
+
+    public ResponseWriter write(long v) {
+        if (v < 0) {
+            if (v == Long.MIN_VALUE) {
+                return write(Long.toString(v));
+            }
+            write('-');
+            v = -v;
+        }
+        ensure(19);
+        int digits = 1;
+        for (long t = v; t >= 10; t /= 10) {
+            digits++;
+        }
+        for (int i = count + digits - 1; i >= count; i--) {
+            buf[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        count += digits;
+        return this;
+    }
+
+    public ResponseWriter write(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                //not plain ASCII, let the encoder deal with it
+                return write(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buf[count++] = (byte) c;
+        }
+        return this;
+    }
+
+    public boolean isEmpty() {
+        return count == 0;
+    }
+
+    // bytes buffered so far
+    public int size() {
+        return count;
+    }
+
+    // true if the bytes buffered from offset from on start with prefix
+    public boolean startsWith(int from, byte[] prefix) {
+        return count - from >= prefix.length
+                && Arrays.equals(buf, from, from + prefix.length, prefix, 0, prefix.length);
+    }
+
+    public void flushTo(OutputStream out) throws IOException {
+        out.write(buf, 0, count);
+        out.flush();
+        count = 0;
+        //don't keep a buffer sized for one huge LIST around
+        if (buf.length > 16 * INITIAL) {
+            buf = new byte[INITIAL];
+        }
+    }
+
+    private void ensure(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package ca.concordia.server;
+
+import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.MutationListener;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * WATCH subscriptions of all connections, fed by the filesystem change feed.
+ * Pushed lines look like:
+ * <pre>
+ * EVENT CREATE|WRITE|TRUNCATE &lt;path&gt; &lt;version&gt;
+ * EVENT DELETE &lt;path&gt;
+ * EVENT RENAME &lt;from&gt; &lt;to&gt; &lt;version&gt;
+ * EVENT OVERFLOW            (events were dropped, re-read what you watch)
+ * </pre>
+ * A COPY shows up as CREATE of the target. Callbacks only queue the line; every
+ * watching connection has its own sender thread, so a slow client never holds up the
+ * writer lock. Senders write whole lines while holding the connection's output stream
+ * monitor, which the request loop also holds when it writes replies.
+ */
+public class WatchRegistry implements MutationListener {
+
+    private static final int QUEUE_SIZE = 1024;
+    private static final String OVERFLOW = "EVENT OVERFLOW";
+
+    private final FileSystemManager fsManager;
+    private final List<Watcher> watchers = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscriptions of one connection. A pattern ending in '*' is a prefix ("*" alone
+     * watches everything), anything else is one file. Nothing is allocated or
+     * started until the first WATCH.
+     */
+    public final class Watcher {
+        private final OutputStream out;
+        private final Set<String> files = ConcurrentHashMap.newKeySet();
+        private final Set<String> prefixes = ConcurrentHashMap.newKeySet();
+        private ArrayBlockingQueue<String> queue;
+        private Thread sender;
+        private volatile boolean overflowed = false;
+
+        private Watcher(OutputStream out) {
+            this.out = out;
+        }
+
+        public synchronized void add(String pattern) {
+            String p = canonical(pattern);
+            if (p.endsWith("*")) {
+                prefixes.add(p.substring(0, p.length() - 1));
+            } else {
+                files.add(p);
+            }
+            if (sender == null) {
+                queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+                sender = new Thread(this::send, "watch-sender");
+                sender.setDaemon(true);
+                sender.start();
+                watchers.add(this);
+            }
+        }
+
+        // false if the pattern was not watched
+        public boolean remove(String pattern) {
+            String p = canonical(pattern);
+            return p.endsWith("*") ? prefixes.remove(p.substring(0, p.length() - 1)) : files.remove(p);
+        }
+
+        public synchronized void close() {
+            watchers.remove(this);
+            if (sender != null) {
+                sender.interrupt();
+            }
+        }
+
+        private boolean matches(String path) {
+            if (files.contains(path)) {
+                return true;
+            }
+            for (String prefix : prefixes) {
+                if (path.startsWith(prefix)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void offer(String event) {
+            if (!queue.offer(event)) {
+                overflowed = true;
+            }
+        }
+
+        private void send() {
+            try {
+                while (true) {
+                    write(queue.take());
+                    if (overflowed && queue.isEmpty()) {
+                        overflowed = false;
+                        write(OVERFLOW);
+                    }
+                }
+            } catch (InterruptedException | IOException e) {
+                //connection closed
+            }
+        }
+
+        private void write(String event) throws IOException {
+            byte[] line = (event + "\n").getBytes(StandardCharsets.UTF_8);
+            synchronized (out) {
+                out.write(line);
+                out.flush();
+            }
+        }
+    }
+
+    public WatchRegistry(FileSystemManager fsManager) {
+        this.fsManager = fsManager;
+    }
+
+    // one per connection; replies on out must be written while holding out's monitor
+    public Watcher newWatcher(OutputStream out) {
+        return new Watcher(out);
+    }
+
+    @Override
+    public void onCreate(String fileName) {
+        publish("CREATE", fileName);
+    }
+
+    @Override
+    public void onWrite(String fileName, byte[] contents) {
+        publish("WRITE", fileName);
+    }
+
+    @Override
+    public void onTruncate(String fileName, int size) {
+        publish("TRUNCATE", fileName);
+    }
+
+    @Override
+    public void onDelete(String fileName) {
+        for (Watcher w : watchers) {
+            if (w.matches(fileName)) {
+                w.offer("EVENT DELETE " + fileName);
+            }
+        }
+    }
+
+    @Override
+    public void onRename(String from, String to) {
+        if (watchers.isEmpty()) {
+            return;
+        }
+        String event = "EVENT RENAME " + from + " " + to + " " + versionOf(to);
+        for (Watcher w : watchers) {
+            if (w.matches(from) || w.matches(to)) {
+                w.offer(event);
+            }
+        }
+    }
+
+    @Override
+    public void onCopy(String from, String to) {
+        publish("CREATE", to);
+    }
+
+    @Override
+    public void onMkdir(String path) {
+    }
+
+    @Override
+    public void onRmdir(String path) {
+    }
+
+    private void publish(String type, String path) {
+        String event = null;
+        for (Watcher w : watchers) {
+            if (w.matches(path)) {
+                if (event == null) {
+                    event = "EVENT " + type + " " + path + " " + versionOf(path);
+                }
+                w.offer(event);
+            }
+        }
+    }
+
+    //runs under the writer lock right after the commit, so this is the version just written
+    private long versionOf(String path) {
+        try {
+            return fsManager.stat(path).getVersion();
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    private static String canonical(String pattern) {
+        return pattern.startsWith("/") ? pattern.substring(1) : pattern;
+    }
+}
@@ -0,0 +1,95 @@
+import ca.concordia.server.AdmissionControl;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class AdmissionControlTests {
+
+    @Test
+    void testConnectionCap() throws Exception {
+        AdmissionControl limits = new AdmissionControl(2, 4, 4, 100, 0, 0);
+        InetAddress client = InetAddress.getLoopbackAddress();
+
+        assertTrue(limits.openConnection(client));
+        assertTrue(limits.openConnection(client));
+        assertFalse(limits.openConnection(client), "Third connection is over the cap");
+
+        limits.closeConnection(client);
+        assertTrue(limits.openConnection(client), "Closed connection frees its slot");
+        assertEquals(1, limits.rejectedCount());
+    }
+
+    @Test
+    void testCommandsPastDeadlineAreRefused() throws Exception {
+        AdmissionControl limits = new AdmissionControl(8, 1, 4, 50, 0, 0);
+        InetAddress client = InetAddress.getLoopbackAddress();
+        limits.openConnection(client);
+
+        assertTrue(limits.beginCommand(client));
+        long start = System.nanoTime();
+        assertFalse(limits.beginCommand(client), "No slot frees up within the deadline");
+        long waitedMs = (System.nanoTime() - start) / 1_000_000;
+        assertTrue(waitedMs < 1000, "Refusal must be fast, took " + waitedMs + " ms");
+
+        limits.finishCommand();
+        assertTrue(limits.beginCommand(client));
+    }
+
+    @Test
+    void testFullQueueIsRefusedImmediately() throws Exception {
+        AdmissionControl limits = new AdmissionControl(8, 1, 0, 10_000, 0, 0);
+        InetAddress client = InetAddress.getLoopbackAddress();
+        limits.openConnection(client);
+
+        assertTrue(limits.beginCommand(client));
+        long start = System.nanoTime();
+        assertFalse(limits.beginCommand(client));
+        assertTrue((System.nanoTime() - start) / 1_000_000 < 1000, "Must not wait for the deadline");
+    }
+
+    @Test
+    void testPerClientRateLimit() throws Exception {
+        AdmissionControl limits = new AdmissionControl(8, 8, 8, 100, 1, 3);
+        InetAddress client = InetAddress.getLoopbackAddress();
+        limits.openConnection(client);
+        // second connection of the same address shares the bucket
+        limits.openConnection(client);
+
+        int admitted = 0;
+        for (int i = 0; i < 10; i++) {
+            if (limits.beginCommand(client)) {
+                admitted++;
+                limits.finishCommand();
+            }
+        }
+        assertEquals(3, admitted, "Only the burst gets through");
+    }
+
+    @Test
+    void testServerRefusesConnectionsOverCap() throws Exception {
+        ServerRunner server = new ServerRunner(12420, "--fs", "target/admission.dat", "--max-connections", "1");
+        server.start();
+        // the readiness probe of ServerRunner used a slot too, give it time to close
+        Thread.sleep(300);
+        try (Socket first = new Socket("localhost", 12420);
+             PrintWriter out = new PrintWriter(first.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(first.getInputStream()))) {
+            out.println("LIST");
+            assertTrue(in.readLine().startsWith("OK"));
+
+            try (Socket second = new Socket("localhost", 12420);
+                 BufferedReader in2 = new BufferedReader(new InputStreamReader(second.getInputStream()))) {
+                assertEquals("ERROR: busy", in2.readLine());
+            }
+        } finally {
+            server.stop();
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import ca.concordia.cluster.ConsistentHashRing;
+import ca.concordia.cluster.Topology;
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ClusterTests {
+    static final List<String> TOPOLOGY = List.of(
+            "node1 localhost:12410",
+            "node2 localhost:12411",
+            "node3 localhost:12412");
+
+    static Topology topology;
+    static ServerRunner[] nodes;
+
+    @BeforeAll
+    static void startCluster() throws Exception {
+        Path file = Path.of("target/cluster.topology");
+        Files.write(file, TOPOLOGY);
+        topology = Topology.load(file);
+
+        nodes = new ServerRunner[3];
+        for (int i = 0; i < 3; i++) {
+            nodes[i] = new ServerRunner(12410 + i, "--fs", "target/cluster" + i + ".dat",
+                    "--cluster", file.toString(), "--node", "node" + (i + 1));
+            nodes[i].start();
+        }
+    }
+
+    @AfterAll
+    static void stopCluster() {
+        for (ServerRunner node : nodes) {
+            node.stop();
+        }
+    }
+
+    @Test
+    void testRingSpreadsFilesOverAllNodes() {
+        ConsistentHashRing ring = new ConsistentHashRing(topology);
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < 3000; i++) {
+            counts.merge(ring.ownerOf("f" + i).getName(), 1, Integer::sum);
+        }
+        assertEquals(3, counts.size());
+        for (int c : counts.values()) {
+            assertTrue(c > 500, "Partition badly skewed: " + counts);
+        }
+    }
+
+    @Test
+    void testMisroutedRequestIsRedirected() throws Exception {
+        ConsistentHashRing ring = new ConsistentHashRing(topology);
+        Topology.Node owner = ring.ownerOf("routed");
+        int wrongPort = owner.getPort() == 12410 ? 12411 : 12410;
+
+        assertEquals("REDIRECT " + owner.getAddress(), ClientRunner.send(wrongPort, "CREATE routed"));
+
+        assertEquals("OK: created routed", ClientRunner.send(owner.getPort(), "CREATE routed"));
+        ClientRunner.send(owner.getPort(), "WRITE routed partitioned");
+        assertEquals("OK: partitioned", ClientRunner.send(owner.getPort(), "READ routed"));
+        assertTrue(ClientRunner.send(owner.getPort(), "LIST").contains("routed"));
+        assertFalse(ClientRunner.send(wrongPort, "LIST").contains("routed"));
+
+        // the absolute spelling names the same file, so it has the same owner
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ring.ownerOf("f" + i), ring.ownerOf("/f" + i));
+        }
+        assertEquals("REDIRECT " + owner.getAddress(), ClientRunner.send(wrongPort, "CREATE /routed"));
+        assertEquals("OK: partitioned", ClientRunner.send(owner.getPort(), "READ /routed"));
+    }
+}
@@ -1,5 +1,19 @@
 import ca.concordia.filesystem.FileSystemManager;
+import ca.concordia.filesystem.ListPage;
 import org.junit.jupiter.api.*;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -25,10 +39,20 @@ public class FileSystemTests {
     }
 
     @Test
-    void testTooLongFilename() {
-        Exception ex = assertThrows(Exception.class, () -> fs.createFile("verylongname.txt"));
+    void testTooLongFilename() throws Exception {
+        // names may be up to 255 characters
+        String longest = "n".repeat(251) + ".txt";
+        fs.createFile("verylongname.txt");
+        fs.createFile(longest);
+        assertTrue(Arrays.asList(fs.listFiles()).contains(longest));
+
+        Exception ex = assertThrows(Exception.class, () -> fs.createFile("n" + longest));
         assertTrue(ex.getMessage().toLowerCase().contains("filename"));
         assertTrue(ex.getMessage().toLowerCase().contains("long"));
+
+        // the volume is shared by the tests and only has five inodes
+        fs.deleteFile("verylongname.txt");
+        fs.deleteFile(longest);
     }
 
     @Test
@@ -54,4 +78,444 @@ public class FileSystemTests {
             assertNotEquals("b.txt", fileName);
         }
     }
+
+    @Test
+    void testReadersSeeWholeVersionsDuringWrites() throws Exception {
+        fs.createFile("cow.txt");
+        byte[] as = "a".repeat(300).getBytes();
+        byte[] bs = "b".repeat(300).getBytes();
+        fs.writeFile("cow.txt", as);
+
+        Thread writer = new Thread(() -> {
+            try {
+                for (int i = 0; i < 500; i++) {
+                    fs.writeFile("cow.txt", i % 2 == 0 ? bs : as);
+                }
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        writer.start();
+        while (writer.isAlive()) {
+            String content = new String(fs.readFile("cow.txt"));
+            assertTrue(content.equals("a".repeat(300)) || content.equals("b".repeat(300)),
+                    "Reader saw a torn write");
+        }
+        writer.join();
+        fs.deleteFile("cow.txt");
+    }
+
+    @Test
+    void testStripedVolumeRoundTrip(@TempDir Path dir) throws Exception {
+        String[] disks = {
+                dir.resolve("d0.dat").toString(),
+                dir.resolve("d1.dat").toString(),
+                dir.resolve("d2.dat").toString()
+        };
+        FileSystemManager striped = new FileSystemManager(disks, 10 * 128);
+        // block b of the file is filled with the byte 'a' + b
+        int blocks = 6;
+        byte[] content = new byte[blocks * 128];
+        for (int b = 0; b < blocks; b++) {
+            Arrays.fill(content, b * 128, (b + 1) * 128, (byte) ('a' + b));
+        }
+        striped.createFile("big.txt");
+        striped.writeFile("big.txt", content);
+        assertArrayEquals(content, striped.readFile("big.txt"));
+        striped.close();
+        assertBlocksStriped(disks, content, blocks);
+
+        // opening the volume again keeps the blocks where they were
+        new FileSystemManager(disks, 10 * 128).close();
+        assertBlocksStriped(disks, content, blocks);
+    }
+
+    // block b must sit on device b % n at offset (b / n) * 128
+    private static void assertBlocksStriped(String[] disks, byte[] content, int blocks) throws Exception {
+        for (int b = 0; b < blocks; b++) {
+            byte[] onDisk = new byte[128];
+            try (RandomAccessFile device = new RandomAccessFile(disks[b % disks.length], "r")) {
+                device.seek((long) (b / disks.length) * 128);
+                device.readFully(onDisk);
+            }
+            assertArrayEquals(Arrays.copyOfRange(content, b * 128, (b + 1) * 128), onDisk,
+                    "Block " + b + " should be on device " + (b % disks.length));
+        }
+    }
+
+    @Test
+    void testLookupFromRequestBytesAllocatesNothing() throws Exception {
+        fs.createDirectory("look");
+        fs.createFile("look/f.txt");
+        fs.writeFile("look/f.txt", "x".getBytes());
+        byte[] req = "READ /look/f.txt".getBytes();
+        int inode = fs.findInode(req, 5, 11);
+        assertEquals(fs.stat("look/f.txt").getInode(), inode);
+        assertEquals(fs.stat("look/f.txt").getVersion(), fs.versionOf(inode));
+        assertEquals(inode, fs.findInode(req, 6, 10), "Without the leading '/'");
+        assertEquals(-1, fs.findInode(req, 5, 5), "A directory is not a file");
+        assertEquals(-1, fs.findInode("//look/f.txt".getBytes(), 0, 12));
+        assertEquals(-1, fs.findInode("look/../look/f.txt".getBytes(), 0, 18));
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long versions = 0;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        for (int i = 0; i < 100_000; i++) {
+            versions += fs.versionOf(fs.findInode(req, 5, 11));
+        }
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+        assertTrue(versions > 0);
+        assertTrue(allocated < 1024, allocated + " bytes allocated by 100000 lookups");
+
+        fs.deleteFile("look/f.txt");
+        fs.deleteDirectory("look");
+        assertEquals(-1, fs.findInode(req, 5, 11));
+        assertEquals(-1, fs.versionOf(inode));
+    }
+
+    @Test
+    void testNestedDirectories() throws Exception {
+        fs.createDirectory("docs");
+        fs.createDirectory("docs/2024");
+        fs.createFile("docs/2024/report.txt");
+        fs.writeFile("/docs/2024/report.txt", "nested".getBytes());
+
+        assertEquals("nested", new String(fs.readFile("docs/2024/report.txt")));
+        assertArrayEquals(new String[]{"2024/"}, fs.listDirectory("docs"));
+        assertTrue(Arrays.asList(fs.listFiles()).contains("docs/2024/report.txt"));
+
+        assertThrows(Exception.class, () -> fs.createFile("missing/x.txt"));
+        Exception ex = assertThrows(Exception.class, () -> fs.deleteDirectory("docs/2024"));
+        assertTrue(ex.getMessage().contains("not empty"));
+
+        fs.deleteFile("docs/2024/report.txt");
+        fs.deleteDirectory("docs/2024");
+        fs.deleteDirectory("docs");
+        assertThrows(Exception.class, () -> fs.listDirectory("docs"));
+    }
+
+    @Test
+    void testPagedListingWithPrefixAndCursor() throws Exception {
+        fs.createDirectory("pg");
+        fs.createDirectory("pg/sub");
+        fs.createFile("pg/a");
+        fs.createFile("pg/b");
+        fs.createFile("pg/sub/c");
+        fs.writeFile("pg/b", "four".getBytes());
+
+        ListPage first = fs.listFiles("pg/", null, 2);
+        assertEquals(2, first.getEntries().length);
+        assertEquals("pg/a", first.getEntries()[0].getPath());
+        assertEquals("pg/b", first.getEntries()[1].getPath());
+        assertEquals(4, first.getEntries()[1].getSize());
+        assertEquals("pg/b", first.getNextCursor());
+
+        ListPage second = fs.listFiles("pg/", first.getNextCursor(), 2);
+        assertEquals(1, second.getEntries().length);
+        assertEquals("pg/sub/c", second.getEntries()[0].getPath());
+        assertNull(second.getNextCursor());
+
+        assertEquals(1, fs.listFiles("pg/s", null, 10).getEntries().length);
+        assertEquals(0, fs.listFiles("nothing", null, 10).getEntries().length);
+
+        fs.deleteFile("pg/a");
+        fs.deleteFile("pg/b");
+        fs.deleteFile("pg/sub/c");
+        fs.deleteDirectory("pg/sub");
+        fs.deleteDirectory("pg");
+    }
+
+    @Test
+    void testSparseFilesAndTruncate(@TempDir Path dir) throws Exception {
+        FileSystemManager sparse = new FileSystemManager(dir.resolve("sparse.dat").toString(), 10 * 128);
+
+        // only the last block holds data, the zero blocks before it take no disk block
+        byte[] mostlyZero = new byte[4 * 128];
+        mostlyZero[mostlyZero.length - 1] = 7;
+        sparse.createFile("holes");
+        sparse.writeFile("holes", mostlyZero);
+        assertArrayEquals(mostlyZero, sparse.readFile("holes"));
+
+        // holes uses 4 fnodes but a single block: with full that is all 10 fnodes and 7 blocks
+        byte[] full = new byte[6 * 128];
+        Arrays.fill(full, (byte) 'x');
+        sparse.createFile("full");
+        sparse.writeFile("full", full);
+        assertArrayEquals(full, sparse.readFile("full"));
+        sparse.deleteFile("holes");
+
+        // growing allocates nothing, the new range reads as zeros
+        sparse.createFile("grown");
+        sparse.writeFile("grown", "abc".getBytes());
+        sparse.truncateFile("grown", 300);
+        byte[] grown = sparse.readFile("grown");
+        assertEquals(300, grown.length);
+        assertEquals("abc", new String(grown, 0, 3));
+        for (int i = 3; i < 300; i++) {
+            assertEquals(0, grown[i]);
+        }
+
+        // shrinking then growing again never brings the cut bytes back
+        sparse.truncateFile("full", 130);
+        sparse.truncateFile("full", 200);
+        byte[] regrown = sparse.readFile("full");
+        assertEquals(200, regrown.length);
+        assertEquals('x', regrown[129]);
+        for (int i = 130; i < 200; i++) {
+            assertEquals(0, regrown[i]);
+        }
+
+        // the freed blocks are usable again: grown holds one block, full two
+        sparse.createFile("after");
+        sparse.writeFile("after", Arrays.copyOf(full, 6 * 128));
+        assertArrayEquals(Arrays.copyOf(full, 6 * 128), sparse.readFile("after"));
+
+        assertThrows(Exception.class, () -> sparse.truncateFile("full", 10 * 128 + 1));
+    }
+
+    @Test
+    void testCopySharesBlocksAndRenameMovesEntry(@TempDir Path dir) throws Exception {
+        FileSystemManager cow = new FileSystemManager(dir.resolve("cow.dat").toString(), 10 * 128);
+        String content = "shared block contents ".repeat(15);
+        cow.createFile("orig");
+        cow.writeFile("orig", content.getBytes());
+
+        cow.copyFile("orig", "dup");
+        assertEquals(content, new String(cow.readFile("dup")));
+        assertThrows(Exception.class, () -> cow.copyFile("orig", "dup"), "Target exists");
+
+        // shrinking the copy inside a shared block must not touch the original
+        cow.truncateFile("dup", 140);
+        assertEquals(content, new String(cow.readFile("orig")));
+        assertEquals(content.substring(0, 140), new String(cow.readFile("dup")));
+
+        // deleting the original keeps the blocks the copy still uses
+        cow.deleteFile("orig");
+        assertEquals(content.substring(0, 140), new String(cow.readFile("dup")));
+
+        cow.createDirectory("moved");
+        cow.renameFile("dup", "moved/final");
+        assertThrows(Exception.class, () -> cow.readFile("dup"));
+        assertEquals(content.substring(0, 140), new String(cow.readFile("moved/final")));
+        assertArrayEquals(new String[]{"moved/final"}, cow.listFiles());
+    }
+
+    @Test
+    void testReadsIgnoreWritesToOtherFiles(@TempDir Path dir) throws Exception {
+        FileSystemManager busy = new FileSystemManager(new String[]{
+                dir.resolve("rw0.dat").toString(), dir.resolve("rw1.dat").toString()}, 10 * 128);
+        String quiet = "q".repeat(300);
+        busy.createFile("quiet");
+        busy.writeFile("quiet", quiet.getBytes());
+        busy.createFile("hot");
+
+        // one writer never contends with itself, so any lock wait would be a reader falling back
+        Recording recording = new Recording();
+        recording.enable("ca.concordia.LockWait").withoutThreshold();
+        recording.start();
+        Thread writer = new Thread(() -> {
+            for (int i = 0; i < 5000; i++) {
+                try {
+                    busy.writeFile("hot", ("h" + i).repeat(50).getBytes());
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        List<String> wrong = new CopyOnWriteArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 2; r++) {
+            readers.add(new Thread(() -> {
+                while (writer.isAlive()) {
+                    try {
+                        if (!quiet.equals(new String(busy.readFile("quiet")))) {
+                            wrong.add("torn read");
+                        }
+                    } catch (Exception e) {
+                        wrong.add(e.getMessage());
+                    }
+                }
+            }));
+        }
+        writer.start();
+        readers.forEach(Thread::start);
+        writer.join();
+        for (Thread t : readers) {
+            t.join();
+        }
+        recording.stop();
+        Path jfr = dir.resolve("reads.jfr");
+        recording.dump(jfr);
+        recording.close();
+
+        assertTrue(wrong.isEmpty(), "Reads of 'quiet' went wrong: " + wrong);
+        long lockWaits = RecordingFile.readAllEvents(jfr).stream()
+                .filter(e -> e.getEventType().getName().equals("ca.concordia.LockWait"))
+                .count();
+        assertEquals(0, lockWaits, "Readers of 'quiet' fell back to the writer lock");
+    }
+
+    @Test
+    void testDefragmentMakesChainsContiguous(@TempDir Path dir) throws Exception {
+        FileSystemManager frag = new FileSystemManager(dir.resolve("frag.dat").toString(), 10 * 128);
+        String one = "x".repeat(100);
+        for (String name : new String[]{"a", "b", "c"}) {
+            frag.createFile(name);
+            frag.writeFile(name, one.getBytes());
+        }
+        frag.createFile("x");
+        frag.writeFile("x", "y".repeat(6 * 128).getBytes());
+        // only blocks 1 and 9 are free, there is no run of two, so d ends up scattered
+        frag.deleteFile("b");
+        String two = "0123456789".repeat(20);
+        frag.createFile("d");
+        frag.writeFile("d", two.getBytes());
+        assertEquals(2, frag.fragments("d"));
+        assertTrue(frag.fragmentation() > 0);
+        long version = frag.stat("d").getVersion();
+
+        frag.deleteFile("x");
+        assertTrue(frag.defragment("d"));
+        assertEquals(1, frag.fragments("d"));
+        assertEquals(0.0, frag.fragmentation());
+        assertEquals(two, new String(frag.readFile("d")));
+        assertEquals(version, frag.stat("d").getVersion(), "Moving blocks does not change the contents");
+        assertFalse(frag.defragment("d"), "Already contiguous");
+
+        // the old blocks are free again
+        frag.createFile("e");
+        String three = "0123456789".repeat(35);
+        frag.writeFile("e", three.getBytes());
+        assertEquals(three, new String(frag.readFile("e")));
+        assertEquals(two, new String(frag.readFile("d")));
+    }
+
+    @Test
+    void testReadersSeeWholeFilesDuringDefragmentation(@TempDir Path dir) throws Exception {
+        // striped: reads wait in the device queues, which keeps them in flight long enough to race
+        FileSystemManager frag = new FileSystemManager(new String[]{
+                dir.resolve("busy0.dat").toString(), dir.resolve("busy1.dat").toString()}, 10 * 128);
+        // rewrites free their blocks without touching them, so the defragmenter can move another file in
+        frag.enableWriteBack(60000);
+        String[] names = {"a", "b", "c", "d"};
+        for (String name : names) {
+            frag.createFile(name);
+        }
+
+        // every file only ever holds its own letter, in varying lengths
+        Thread mover = new Thread(() -> {
+            Random random = new Random(42);
+            for (int i = 0; i < 50000; i++) {
+                String name = names[random.nextInt(names.length)];
+                try {
+                    switch (random.nextInt(3)) {
+                        case 0:
+                            frag.writeFile(name, name.repeat(random.nextInt(300) + 90).getBytes());
+                            break;
+                        case 1:
+                            frag.flush();
+                            break;
+                        default:
+                            frag.defragment(name);
+                    }
+                } catch (Exception full) {
+                    //no free space, the next flush or rewrite makes room
+                }
+            }
+        });
+        List<String> torn = new CopyOnWriteArrayList<>();
+        List<Thread> readers = new ArrayList<>();
+        for (int r = 0; r < 4; r++) {
+            readers.add(new Thread(() -> {
+                try {
+                    while (mover.isAlive()) {
+                        for (String name : names) {
+                            String got = new String(frag.readFile(name));
+                            if (!got.equals(name.repeat(got.length()))) {
+                                torn.add(name + ": " + got);
+                            }
+                        }
+                    }
+                } catch (Exception ex) {
+                    torn.add(ex.toString());
+                }
+            }));
+        }
+        mover.start();
+        for (Thread reader : readers) {
+            reader.start();
+        }
+        mover.join();
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertEquals(List.of(), torn, "Reader saw blocks of another file");
+    }
+
+    @Test
+    void testCloseFlushesBufferedData(@TempDir Path dir) throws Exception {
+        Path disk = dir.resolve("closing.dat");
+        FileSystemManager closing = new FileSystemManager(disk.toString(), 10 * 128);
+        closing.enableWriteBack(60000);
+        closing.createFile("kept");
+        closing.writeFile("kept", "still buffered".getBytes());
+
+        closing.close();
+        assertTrue(new String(Files.readAllBytes(disk)).contains("still buffered"), "close() flushes first");
+        Exception e = assertThrows(Exception.class, () -> closing.writeFile("kept", "lost".getBytes()));
+        assertEquals("Filesystem is closed", e.getMessage());
+        closing.close();
+    }
+
+    @Test
+    void testCopyCannotTakeSpaceReservedForBufferedData(@TempDir Path dir) throws Exception {
+        Path disk = dir.resolve("reserved.dat");
+        FileSystemManager wb = new FileSystemManager(disk.toString(), 10 * 128);
+        wb.enableWriteBack(60000);
+        wb.createFile("src");
+        wb.writeFile("src", "s".repeat(4 * 128).getBytes());
+        wb.flush();
+
+        // the buffered file is promised the other 6 fnodes and blocks
+        String buffered = "buffered data ".repeat(50);
+        wb.createFile("buf");
+        wb.writeFile("buf", buffered.getBytes());
+        Exception e = assertThrows(Exception.class, () -> wb.copyFile("src", "dup"));
+        assertEquals("no free space", e.getMessage());
+
+        wb.close();
+        new FileSystemManager(disk.toString(), 10 * 128).close();
+        assertTrue(new String(Files.readAllBytes(disk)).contains(buffered), "the acknowledged write reached the disk");
+    }
+
+    @Test
+    void testWriteBackDelaysAllocation(@TempDir Path dir) throws Exception {
+        FileSystemManager wb = new FileSystemManager(dir.resolve("wb.dat").toString(), 10 * 128);
+        wb.enableWriteBack(60000);
+        wb.createFile("a");
+        wb.createFile("tmp");
+        wb.writeFile("a", "x".repeat(100).getBytes());
+        wb.writeFile("tmp", "t".repeat(300).getBytes());
+        // buffered: readable, but no blocks picked yet
+        assertEquals("x".repeat(100), new String(wb.readFile("a")));
+        assertEquals(0, wb.fragments("a"));
+
+        // space is still reserved for buffered files
+        wb.createFile("big");
+        Exception e = assertThrows(Exception.class, () -> wb.writeFile("big", "b".repeat(7 * 128).getBytes()));
+        assertEquals("no free space", e.getMessage());
+
+        // deleted before the flush, so it never touched the disk
+        wb.deleteFile("tmp");
+        wb.writeFile("big", "b".repeat(7 * 128).getBytes());
+        wb.truncateFile("big", 5 * 128);
+        wb.flush();
+
+        assertEquals(1, wb.fragments("a"));
+        assertEquals(1, wb.fragments("big"));
+        assertEquals("x".repeat(100), new String(wb.readFile("a")));
+        assertEquals("b".repeat(5 * 128), new String(wb.readFile("big")));
+        assertEquals(0.0, wb.fragmentation());
+    }
 }
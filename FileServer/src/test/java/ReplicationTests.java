@@ -0,0 +1,125 @@
+import helpers.ClientRunner;
+import helpers.ServerRunner;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReplicationTests {
+    static final int PRIMARY_PORT = 12400;
+    static final int REPLICATION_PORT = 12401;
+
+    static ServerRunner primary;
+
+    @BeforeAll
+    static void startPrimary() throws Exception {
+        new File("target/primary.dat").delete();
+        primary = new ServerRunner(PRIMARY_PORT,
+                "--fs", "target/primary.dat", "--replication-port", String.valueOf(REPLICATION_PORT));
+        primary.start();
+    }
+
+    @AfterAll
+    static void stopPrimary() {
+        primary.stop();
+    }
+
+    // polls the follower until the command returns the expected reply
+    static String awaitReply(int port, String command, String expected) throws Exception {
+        Instant start = Instant.now();
+        String res = ClientRunner.send(port, command);
+        while (!res.equals(expected) && Duration.between(start, Instant.now()).getSeconds() < 10) {
+            Thread.sleep(100);
+            res = ClientRunner.send(port, command);
+        }
+        return res;
+    }
+
+    @Test
+    void testFollowerCatchesUpAndStreams() throws Exception {
+        // written before the follower exists: arrives through the snapshot
+        ClientRunner.send(PRIMARY_PORT, "CREATE before");
+        ClientRunner.send(PRIMARY_PORT, "WRITE before snapshotdata");
+        ClientRunner.send(PRIMARY_PORT, "MKDIR dir");
+
+        ServerRunner follower = new ServerRunner(12402,
+                "--fs", "target/follower1.dat", "--follow", "localhost:" + REPLICATION_PORT);
+        follower.start();
+        try {
+            assertEquals("OK: snapshotdata", awaitReply(12402, "READ before", "OK: snapshotdata"));
+
+            // written afterwards: arrives through the log stream
+            ClientRunner.send(PRIMARY_PORT, "CREATE after");
+            ClientRunner.send(PRIMARY_PORT, "WRITE after streamed");
+            assertEquals("OK: streamed", awaitReply(12402, "READ after", "OK: streamed"));
+
+            ClientRunner.send(PRIMARY_PORT, "CREATE dir/nested");
+            ClientRunner.send(PRIMARY_PORT, "WRITE dir/nested deep");
+            assertEquals("OK: deep", awaitReply(12402, "READ dir/nested", "OK: deep"));
+
+            ClientRunner.send(PRIMARY_PORT, "DELETE before");
+            assertEquals("ERROR: File not found", awaitReply(12402, "READ before", "ERROR: File not found"));
+        } finally {
+            follower.stop();
+        }
+    }
+
+    @Test
+    void testFollowerResyncsAfterPrimaryRestart() throws Exception {
+        // a primary of its own: this test restarts it
+        new File("target/restarted.dat").delete();
+        ServerRunner first = new ServerRunner(12404,
+                "--fs", "target/restarted.dat", "--replication-port", "12405");
+        first.start();
+        ServerRunner follower = new ServerRunner(12406,
+                "--fs", "target/follower3.dat", "--follow", "localhost:12405");
+        ServerRunner second = null;
+        try {
+            follower.start();
+            ClientRunner.send(12404, "CREATE old");
+            ClientRunner.send(12404, "WRITE old v1");
+            ClientRunner.send(12404, "WRITE old v2");
+            assertEquals("OK: v2", awaitReply(12406, "READ old", "OK: v2"));
+
+            // the new run numbers its log from 1 again, both below and past the follower's position
+            first.stop();
+            second = new ServerRunner(12404, "--fs", "target/restarted.dat", "--replication-port", "12405");
+            second.start();
+            ClientRunner.send(12404, "CREATE fresh");
+            ClientRunner.send(12404, "WRITE fresh restarted");
+            assertEquals("OK: restarted", awaitReply(12406, "READ fresh", "OK: restarted"));
+            assertEquals("ERROR: File not found", awaitReply(12406, "READ old", "ERROR: File not found"));
+
+            ClientRunner.send(12404, "CREATE later");
+            ClientRunner.send(12404, "WRITE later one");
+            ClientRunner.send(12404, "WRITE later two");
+            ClientRunner.send(12404, "WRITE later three");
+            assertEquals("OK: three", awaitReply(12406, "READ later", "OK: three"));
+            assertEquals(ClientRunner.send(12404, "LIST"), ClientRunner.send(12406, "LIST"));
+        } finally {
+            follower.stop();
+            first.stop();
+            if (second != null) {
+                second.stop();
+            }
+        }
+    }
+
+    @Test
+    void testFollowerRejectsWrites() throws Exception {
+        ServerRunner follower = new ServerRunner(12403,
+                "--fs", "target/follower2.dat", "--follow", "localhost:" + REPLICATION_PORT);
+        follower.start();
+        try {
+            assertTrue(ClientRunner.send(12403, "CREATE nope").startsWith("ERROR"));
+            assertTrue(ClientRunner.send(12403, "LIST").startsWith("OK"));
+        } finally {
+            follower.stop();
+        }
+    }
+}
@@ -0,0 +1,43 @@
+import ca.concordia.server.ResponseCache;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ResponseCacheTests {
+
+    @Test
+    void testHitOnlyForSameInodeAndVersion() {
+        ResponseCache cache = new ResponseCache(16, 1024, 256);
+        cache.put("a.txt", 3, 7, "OK: hello\n".getBytes());
+
+        assertArrayEquals("OK: hello\n".getBytes(), cache.get("a.txt", 3, 7));
+        assertNull(cache.get("a.txt", 3, 8), "Newer version must miss");
+        assertNull(cache.get("a.txt", 4, 7), "Recycled inode must miss");
+
+        cache.invalidate("a.txt");
+        assertNull(cache.get("a.txt", 3, 7));
+    }
+
+    @Test
+    void testColdNewcomerDoesNotEvictHotEntry() {
+        ResponseCache cache = new ResponseCache(1, 1024, 256);
+        cache.put("hot", 0, 1, "OK: hot\n".getBytes());
+        for (int i = 0; i < 5; i++) {
+            cache.get("hot", 0, 1);
+        }
+
+        // read once, less popular than the resident entry
+        cache.get("cold", 1, 1);
+        cache.put("cold", 1, 1, "OK: cold\n".getBytes());
+        assertNotNull(cache.get("hot", 0, 1));
+        assertNull(cache.get("cold", 1, 1));
+
+        // once it is read more often it gets in
+        for (int i = 0; i < 10; i++) {
+            cache.get("cold", 1, 1);
+        }
+        cache.put("cold", 1, 1, "OK: cold\n".getBytes());
+        assertNotNull(cache.get("cold", 1, 1));
+        assertEquals(1, cache.size());
+    }
+}
@@ -5,7 +5,13 @@ import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.Timeout;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -53,6 +59,116 @@ public class ServerTests {
         }
     }
 
+    @Test
+    void testPipelinedCommandsInOneWrite() throws Exception {
+        try (Socket s = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            OutputStream out = s.getOutputStream();
+            //several requests in one packet, mixed case and CRLF line endings
+            out.write(("create piped\r\n  write piped hello  piped world \r\nRead piped\n\nDELETE piped\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("OK: created piped", in.readLine());
+            assertEquals("OK: wrote piped", in.readLine());
+            assertEquals("OK: hello  piped world", in.readLine());
+            assertEquals("ERROR: empty command", in.readLine());
+            assertEquals("OK: deleted piped", in.readLine());
+        }
+    }
+
+    @Test
+    void testPagedListHeaderCannotBeAReadReply() throws Exception {
+        try (Socket s = new Socket("localhost", 12345);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            OutputStream out = s.getOutputStream();
+            out.write("CREATE pgfile\nWRITE pgfile PAGE 2 -\nREAD pgfile\nLIST pgf 10\nDELETE pgfile\n"
+                    .getBytes(StandardCharsets.UTF_8));
+            out.flush();
+
+            assertEquals("OK: created pgfile", in.readLine());
+            assertEquals("OK: wrote pgfile", in.readLine());
+            assertEquals("OK: PAGE 2 -", in.readLine());
+            assertEquals("PAGE 1 -", in.readLine());
+            assertTrue(in.readLine().startsWith("pgfile 8 "));
+            assertEquals("OK: deleted pgfile", in.readLine());
+        }
+    }
+
+    @Test
+    @Timeout(10)
+    void testWatchPushesEvents() throws Exception {
+        try (Socket s = new Socket("localhost", 12345);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            out.println("WATCH w*");
+            assertEquals("OK: watching w*", in.readLine());
+
+            ClientRunner.send("CREATE wfile");
+            ClientRunner.send("CREATE other");
+            ClientRunner.send("WRITE wfile hi");
+            ClientRunner.send("DELETE wfile");
+            ClientRunner.send("DELETE other");
+
+            assertTrue(in.readLine().matches("EVENT CREATE wfile \\d+"));
+            assertTrue(in.readLine().matches("EVENT WRITE wfile \\d+"));
+            assertEquals("EVENT DELETE wfile", in.readLine());
+
+            out.println("UNWATCH w*");
+            assertEquals("OK: unwatched w*", in.readLine());
+        }
+    }
+
+    @Test
+    void testConditionalReadAndCompareAndSetWrite() throws Exception {
+        ClientRunner.send("CREATE cas");
+        ClientRunner.send("WRITE cas first");
+        long version = Long.parseLong(ClientRunner.send("STAT cas").split(" ")[3]);
+
+        assertEquals("NOT_MODIFIED " + version, ClientRunner.send("READ cas IF-NONE-MATCH " + version));
+        assertEquals("OK: " + version + " first", ClientRunner.send("READ cas IF-NONE-MATCH " + (version - 1)));
+
+        String won = ClientRunner.send("WRITE cas IF-MATCH " + version + " second value");
+        assertTrue(won.startsWith("OK: wrote cas "), won);
+        long newVersion = Long.parseLong(won.substring("OK: wrote cas ".length()));
+        assertTrue(newVersion > version);
+
+        // a writer still holding the old version loses
+        String lost = ClientRunner.send("WRITE cas IF-MATCH " + version + " third");
+        assertEquals("ERROR: Version mismatch (current " + newVersion + ")", lost);
+        assertEquals("OK: second value", ClientRunner.send("READ cas"));
+
+        // a malformed condition is refused, not written as data
+        assertEquals("ERROR: IF-MATCH requires a version and data", ClientRunner.send("WRITE cas IF-MATCH " + newVersion));
+        assertEquals("ERROR: IF-MATCH requires a version and data", ClientRunner.send("WRITE cas IF-MATCH abc hello"));
+        assertEquals("ERROR: IF-MATCH requires a version and data", ClientRunner.send("WRITE cas IF-MATCH"));
+        assertEquals("OK: second value", ClientRunner.send("READ cas"));
+
+        ClientRunner.send("DELETE cas");
+    }
+
+    @Test
+    void testCachedReadsMatchEverySpellingOfThePath() throws Exception {
+        ClientRunner.send("MKDIR rd");
+        ClientRunner.send("CREATE rd/f");
+        ClientRunner.send("WRITE rd/f one");
+        try {
+            assertEquals("OK: one", ClientRunner.send("READ rd/f"));
+            // answered from the cache entry the first read left
+            assertEquals("OK: one", ClientRunner.send("READ /rd/f"));
+            ClientRunner.send("WRITE /rd/f two");
+            assertEquals("OK: two", ClientRunner.send("READ /rd/f"));
+            assertEquals("OK: two", ClientRunner.send("READ rd/f"));
+
+            assertEquals("ERROR: Invalid filename", ClientRunner.send("READ //rd/f"));
+            assertEquals("ERROR: File not found", ClientRunner.send("READ rd"));
+            assertEquals("ERROR: File not found", ClientRunner.send("READ rd/missing"));
+        } finally {
+            ClientRunner.send("DELETE rd/f");
+            ClientRunner.send("RMDIR rd");
+        }
+    }
+
     @Test
     @Timeout(15)
     void testHandlesHundredsOfClientsQuickly() throws Exception {
@@ -0,0 +1,202 @@
+import helpers.ServerRunner;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs a fixed mixed workload against a real server for a fixed time and fails when
+ * throughput or p99 latency fall past the limits in soak-thresholds.properties. Every
+ * client uses a fixed random seed, so two runs send the same command sequence.
+ * The server records a flight recording (target/soak.jfr) for digging into a failure.
+ * Not part of the default build: run with {@code mvn test -Psoak} on a machine whose
+ * numbers the thresholds were set for.
+ */
+@Tag("soak")
+public class SoakTests {
+    static final int PORT = 12430;
+    static final String[] FILES = {"soak0", "soak1", "soak2", "soak3"};
+
+    static Properties thresholds() throws Exception {
+        Properties p = new Properties();
+        try (InputStream in = SoakTests.class.getResourceAsStream("/soak-thresholds.properties")) {
+            p.load(in);
+        }
+        for (String key : p.stringPropertyNames()) {
+            p.setProperty(key, System.getProperty("soak." + key, p.getProperty(key)));
+        }
+        return p;
+    }
+
+    // latencies in microseconds of the commands sent after the warmup, and the error replies
+    static class ClientResult {
+        long[] latencies = new long[1024];
+        int count = 0;
+        int errors = 0;
+        String firstError;
+
+        void add(long micros) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = micros;
+        }
+    }
+
+    static ClientResult runClient(int id, long warmupEnd, long end, Properties cfg) throws Exception {
+        int reads = Integer.parseInt(cfg.getProperty("read.percent"));
+        int writes = reads + Integer.parseInt(cfg.getProperty("write.percent"));
+        int stats = writes + Integer.parseInt(cfg.getProperty("stat.percent"));
+        Random random = new Random(id);
+        ClientResult result = new ClientResult();
+
+        try (Socket s = new Socket("localhost", PORT);
+             PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+             BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+            long now = System.nanoTime();
+            while (now < end) {
+                String file = FILES[random.nextInt(FILES.length)];
+                int roll = random.nextInt(100);
+                String cmd;
+                if (roll < reads) {
+                    cmd = "READ " + file;
+                } else if (roll < writes) {
+                    cmd = "WRITE " + file + " client" + id + "-" + random.nextInt(1_000_000);
+                } else if (roll < stats) {
+                    cmd = "STAT " + file;
+                } else {
+                    cmd = "LIST";
+                }
+
+                out.println(cmd);
+                String reply = in.readLine();
+                long done = System.nanoTime();
+                if (reply == null) {
+                    throw new IllegalStateException("Server closed the connection");
+                }
+                if (done >= warmupEnd) {
+                    result.add((done - now) / 1000);
+                    if (reply.startsWith("ERROR")) {
+                        if (result.errors++ == 0) {
+                            result.firstError = cmd + " -> " + reply;
+                        }
+                    }
+                }
+                now = done;
+            }
+        }
+        return result;
+    }
+
+    @Test
+    void testThroughputAndLatencyStayWithinThresholds() throws Exception {
+        Properties cfg = thresholds();
+        long durationMs = Long.parseLong(cfg.getProperty("duration.ms"));
+        long warmupMs = Long.parseLong(cfg.getProperty("warmup.ms"));
+        int clients = Integer.parseInt(cfg.getProperty("clients"));
+
+        new File("target/soak.dat").delete();
+        File recording = new File("target/soak.jfr");
+        recording.delete();
+        ServerRunner server = new ServerRunner(PORT, "--fs", "target/soak.dat")
+                .withJvmArgs("-XX:StartFlightRecording:filename=" + recording.getPath());
+        server.start();
+
+        List<ClientResult> results = new ArrayList<>();
+        try {
+            try (Socket s = new Socket("localhost", PORT);
+                 PrintWriter out = new PrintWriter(s.getOutputStream(), true);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(s.getInputStream()))) {
+                for (String f : FILES) {
+                    out.println("CREATE " + f);
+                    in.readLine();
+                    out.println("WRITE " + f + " initial");
+                    assertTrue(in.readLine().startsWith("OK"));
+                }
+            }
+
+            long start = System.nanoTime();
+            long warmupEnd = start + warmupMs * 1_000_000;
+            long end = warmupEnd + durationMs * 1_000_000;
+            ExecutorService pool = Executors.newFixedThreadPool(clients);
+            List<Future<ClientResult>> running = new ArrayList<>();
+            for (int i = 0; i < clients; i++) {
+                final int id = i;
+                running.add(pool.submit(() -> runClient(id, warmupEnd, end, cfg)));
+            }
+            for (Future<ClientResult> f : running) {
+                results.add(f.get());
+            }
+            pool.shutdown();
+        } finally {
+            // JFR writes the recording on exit
+            server.stop();
+        }
+
+        int total = 0;
+        int errors = 0;
+        String firstError = null;
+        for (ClientResult r : results) {
+            total += r.count;
+            errors += r.errors;
+            if (firstError == null) {
+                firstError = r.firstError;
+            }
+        }
+        long[] all = new long[total];
+        int pos = 0;
+        for (ClientResult r : results) {
+            System.arraycopy(r.latencies, 0, all, pos, r.count);
+            pos += r.count;
+        }
+        Arrays.sort(all);
+
+        double throughput = total * 1000.0 / durationMs;
+        double p50Ms = all.length == 0 ? 0 : all[all.length / 2] / 1000.0;
+        double p99Ms = all.length == 0 ? 0 : all[(int) Math.min(all.length - 1, all.length * 0.99)] / 1000.0;
+        System.out.printf("Soak: %d commands in %d ms, %.0f ops/s, p50 %.2f ms, p99 %.2f ms, %d errors%n",
+                total, durationMs, throughput, p50Ms, p99Ms, errors);
+
+        assertEquals(0, errors, "Unexpected error reply: " + firstError);
+        double minThroughput = Double.parseDouble(cfg.getProperty("min.throughput"));
+        double maxP99 = Double.parseDouble(cfg.getProperty("max.p99.ms"));
+        assertTrue(throughput >= minThroughput,
+                String.format("Throughput regressed: %.0f ops/s < %.0f", throughput, minThroughput));
+        assertTrue(p99Ms <= maxP99, String.format("p99 regressed: %.2f ms > %.2f ms", p99Ms, maxP99));
+
+        // the server side view of the same run
+        Map<String, Integer> commands = new TreeMap<>();
+        int blockIo = 0;
+        for (RecordedEvent e : RecordingFile.readAllEvents(Path.of(recording.getPath()))) {
+            String type = e.getEventType().getName();
+            if (type.equals("ca.concordia.Command")) {
+                commands.merge(e.getString("command").toUpperCase(), 1, Integer::sum);
+            } else if (type.equals("ca.concordia.BlockIO")) {
+                blockIo++;
+            }
+        }
+        System.out.println("Recorded commands " + commands + ", block I/O events " + blockIo);
+        assertTrue(commands.getOrDefault("READ", 0) > 0, "Command events are recorded");
+        assertTrue(blockIo > 0, "Block I/O events are recorded");
+    }
+}
@@ -55,7 +55,8 @@ public class ThreadManagementTests {
         ClientRunner.send("WRITE shared hello");
 
         ExecutorService pool = Executors.newFixedThreadPool(10);
-        CountDownLatch latch = new CountDownLatch(10);
+        // 5 readers + 1 writer
+        CountDownLatch latch = new CountDownLatch(6);
 
         // Start readers
         for (int i = 0; i < 5; i++) {
@@ -4,17 +4,48 @@ import java.io.*;
 import java.net.*;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class ServerRunner {
     private Process process;
+    private final int port;
+    private final String[] args;
+    private final List<String> jvmArgs = new ArrayList<>();
+
+    public ServerRunner() {
+        this(12345);
+    }
+
+    // extra args are passed to Main, e.g. "--fs", "target/node1.dat"
+    public ServerRunner(int port, String... args) {
+        this.port = port;
+        this.args = args;
+    }
+
+    // options for the server JVM itself, e.g. "-XX:StartFlightRecording:filename=target/x.jfr"
+    public ServerRunner withJvmArgs(String... options) {
+        jvmArgs.addAll(Arrays.asList(options));
+        return this;
+    }
 
     public void start() throws IOException, InterruptedException {
-        process = new ProcessBuilder("java", "-cp", "target/classes", "ca.concordia.Main")
+        List<String> cmd = new ArrayList<>(List.of("java"));
+        cmd.addAll(jvmArgs);
+        cmd.addAll(List.of("-cp", "target/classes", "ca.concordia.Main"));
+        if (port != 12345) {
+            cmd.add("--port");
+            cmd.add(String.valueOf(port));
+        }
+        cmd.addAll(Arrays.asList(args));
+        process = new ProcessBuilder(cmd)
                 .redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.DISCARD)
                 .start();
         // Wait for port to become available (server ready)
         Instant start = Instant.now();
-        while (!isPortOpen("localhost", 12345)) {
+        while (!isPortOpen("localhost", port)) {
             if (Duration.between(start, Instant.now()).getSeconds() > 10)
                 throw new RuntimeException("Server failed to start within timeout");
             Thread.sleep(200);
@@ -34,6 +65,11 @@ public class ServerRunner {
     public void stop() {
         if (process != null && process.isAlive()) {
             process.destroy();
+            try {
+                process.waitFor();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
         }
     }
 }